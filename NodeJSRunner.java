@@ -1,23 +1,54 @@
 import javax.swing.*;
 import javax.swing.tree.*;
+import javax.swing.event.*;
 import javax.swing.text.*;
+import javax.swing.undo.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.lang.ref.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 public class NodeJSRunner extends JFrame {
     private JTree fileTree;
     private DefaultTreeModel treeModel;
     private DefaultMutableTreeNode rootNode;
+    private static final String LOADING_PLACEHOLDER = "Loading...";
+    private Map<Path, DefaultMutableTreeNode> loadedFolders = new HashMap<>();
+    private FileTreeWatcher fileTreeWatcher;
+    private DirectoryScanner.Scan<?> currentScan;
+    private JLabel explorerStatus;
+    private volatile IgnoreRules ignoreRules;
+    private static final java.util.List<String> DEFAULT_EXCLUDES = Arrays.asList(".*", "node_modules");
     private JTabbedPane editorTabs;
-    private JTextPane terminalArea;
     private JTextField commandField;
     private File workingDirectory;
-    private Process currentProcess;
-    private StyledDocument terminalDoc;
+    private SessionManager sessions;
+    private AnsiStyles ansiStyles;
+    private JLabel scrollbackLabel;
+    private JLabel prompt;
+    private ResourcePanel resourcePanel;
+    private JCheckBoxMenuItem fastRun;
+    private NodeWorkerPool nodeWorkers;
+    private CommandHistory commandHistory;
+    private final FileSaver fileSaver = new FileSaver();
+    private final Map<String, EditJournal.Recovered> recoveredEdits = new HashMap<>();
+    private boolean closing;
     private Map<String, EditorTab> openFiles;
+    private final Map<Component, EditorTab> tabsByComponent = new IdentityHashMap<>();
+    private long selections;
+    private static final long TAB_BUDGET = Long.getLong("nodeide.tabs.budget", Runtime.getRuntime().maxMemory() / 4 >> 20) << 20;
     
     // Styles for terminal
     private SimpleAttributeSet normalStyle, errorStyle, successStyle, commandStyle;
@@ -25,7 +56,7 @@ public class NodeJSRunner extends JFrame {
     public NodeJSRunner() {
         setTitle("Node.js IDE - Full Development Environment");
         setSize(1400, 900);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         setLocationRelativeTo(null);
         
         openFiles = new HashMap<>();
@@ -40,10 +71,38 @@ public class NodeJSRunner extends JFrame {
         }
         
         initComponents();
+        
+        // Keep the explorer state for the next launch
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (closing) return;
+                closing = true;
+                setTitle(getTitle() + " - closing...");
+                setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+                appendToTerminal("[Closing: stopping processes and finishing saves...]\n", normalStyle);
+                
+                CompletableFuture<Void> stopped = sessions.stopAll();
+                if (nodeWorkers != null) nodeWorkers.shutdown();
+                saveTreeSnapshot();
+                for (EditorTab tab : openFiles.values()) {
+                    if (tab.journal != null) tab.journal.discard();
+                }
+                
+                // Wait off the EDT so the window keeps painting
+                Workers.io().execute(() -> {
+                    stopped.join();
+                    fileSaver.awaitPending(10_000);
+                    Workers.shutdown();
+                    System.exit(0);
+                });
+            }
+        });
         setVisible(true);
         
         appendToTerminal("=== Node.js IDE Initialized ===\n", successStyle);
         appendToTerminal("Working directory: " + workingDirectory.getAbsolutePath() + "\n\n", normalStyle);
+        recoverEdits();
     }
 
     private boolean selectWorkingDirectory() {
@@ -125,7 +184,7 @@ public class NodeJSRunner extends JFrame {
         saveItem.addActionListener(e -> saveCurrentFile());
         saveAllItem.addActionListener(e -> saveAllFiles());
         closeTabItem.addActionListener(e -> closeCurrentTab());
-        exitItem.addActionListener(e -> System.exit(0));
+        exitItem.addActionListener(e -> dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING)));
         
         fileMenu.add(newFileItem);
         fileMenu.add(newFolderItem);
@@ -145,7 +204,7 @@ public class NodeJSRunner extends JFrame {
         
         deleteItem.addActionListener(e -> deleteSelected());
         renameItem.addActionListener(e -> renameSelected());
-        refreshItem.addActionListener(e -> refreshFileTree());
+        refreshItem.addActionListener(e -> refreshLoadedFolders());
         
         editMenu.add(deleteItem);
         editMenu.add(renameItem);
@@ -154,14 +213,35 @@ public class NodeJSRunner extends JFrame {
         
         // Terminal Menu
         JMenu terminalMenu = new JMenu("Terminal");
+        JMenuItem newTerminal = new JMenuItem("New Terminal");
+        JMenuItem closeTerminal = new JMenuItem("Close Terminal");
         JMenuItem clearTerminal = new JMenuItem("Clear Terminal");
         JMenuItem stopProcess = new JMenuItem("Stop Process");
+        fastRun = new JCheckBoxMenuItem("Fast Run (Warm Node Workers)", Boolean.getBoolean("nodeide.node.warm"));
+        JMenuItem metrics = new JMenuItem("Command Metrics...");
         
+        newTerminal.addActionListener(e -> sessions.newSession());
+        closeTerminal.addActionListener(e -> sessions.close(sessions.current()));
         clearTerminal.addActionListener(e -> clearTerminal());
         stopProcess.addActionListener(e -> stopProcess());
+        metrics.addActionListener(e -> showCommandMetrics());
+        fastRun.addActionListener(e -> {
+            if (fastRun.isSelected()) {
+                nodeWorkers();
+            } else if (nodeWorkers != null) {
+                nodeWorkers.shutdown();
+                nodeWorkers = null;
+            }
+        });
         
+        terminalMenu.add(newTerminal);
+        terminalMenu.add(closeTerminal);
+        terminalMenu.addSeparator();
         terminalMenu.add(clearTerminal);
         terminalMenu.add(stopProcess);
+        terminalMenu.add(fastRun);
+        terminalMenu.addSeparator();
+        terminalMenu.add(metrics);
         
         menuBar.add(fileMenu);
         menuBar.add(editMenu);
@@ -218,6 +298,16 @@ public class NodeJSRunner extends JFrame {
             }
         });
         
+        // Folder contents are read on first expand
+        fileTree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            public void treeWillExpand(TreeExpansionEvent e) {
+                loadChildren((DefaultMutableTreeNode) e.getPath().getLastPathComponent(), null);
+            }
+            
+            public void treeWillCollapse(TreeExpansionEvent e) {
+            }
+        });
+        
         // Right-click context menu
         JPopupMenu contextMenu = new JPopupMenu();
         JMenuItem openItem = new JMenuItem("Open");
@@ -256,7 +346,7 @@ public class NodeJSRunner extends JFrame {
         newFileBtn.setToolTipText("New File");
         newFolderBtn.setToolTipText("New Folder");
         
-        refreshBtn.addActionListener(e -> refreshFileTree());
+        refreshBtn.addActionListener(e -> refreshLoadedFolders());
         newFileBtn.addActionListener(e -> createNewFile());
         newFolderBtn.addActionListener(e -> createNewFolder());
         
@@ -264,9 +354,17 @@ public class NodeJSRunner extends JFrame {
         topPanel.add(newFileBtn);
         topPanel.add(newFolderBtn);
         
+        explorerStatus = new JLabel(" ");
+        
         panel.add(topPanel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(explorerStatus, BorderLayout.SOUTH);
         
+        try {
+            fileTreeWatcher = new FileTreeWatcher(this::onFileSystemChanges);
+        } catch (IOException e) {
+            System.out.println("File watching unavailable: " + e.getMessage());
+        }
         refreshFileTree();
         
         return panel;
@@ -277,6 +375,7 @@ public class NodeJSRunner extends JFrame {
         
         editorTabs = new JTabbedPane();
         editorTabs.setTabLayoutPolicy(JTabbedPane.SCROLL_TAB_LAYOUT);
+        editorTabs.addChangeListener(e -> tabSelected());
         
         // Toolbar
         JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -304,18 +403,17 @@ public class NodeJSRunner extends JFrame {
     private JPanel createTerminalPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         
-        // Terminal area
-        terminalArea = new JTextPane();
-        terminalArea.setFont(new Font("Consolas", Font.PLAIN, 13));
-        terminalArea.setEditable(false);
-        terminalArea.setBackground(new Color(20, 20, 20));
-        terminalArea.setCaretColor(Color.WHITE);
-        terminalDoc = terminalArea.getStyledDocument();
-        JScrollPane terminalScroll = new JScrollPane(terminalArea);
+        // Terminal tabs - one per process session
+        ansiStyles = new AnsiStyles(normalStyle);
+        scrollbackLabel = new JLabel("");
+        scrollbackLabel.setForeground(Color.GRAY);
+        resourcePanel = new ResourcePanel();
+        sessions = new SessionManager(errorStyle, this::sessionChanged);
+        new ResourceMonitor(sessions::getSessions, () -> SwingUtilities.invokeLater(() -> sessionChanged(sessions.current())));
         
         // Command input
         JPanel cmdPanel = new JPanel(new BorderLayout(5, 5));
-        JLabel prompt = new JLabel("$");
+        prompt = new JLabel("$");
         prompt.setForeground(Color.GREEN);
         commandField = new JTextField();
         commandField.setFont(new Font("Consolas", Font.PLAIN, 13));
@@ -324,6 +422,15 @@ public class NodeJSRunner extends JFrame {
         commandField.setCaretColor(Color.WHITE);
         commandField.addActionListener(e -> executeCommand());
         
+        // Ctrl+D closes the running process's stdin
+        commandField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK), "endOfInput");
+        commandField.getActionMap().put("endOfInput", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                ProcessSession session = sessions.current();
+                if (session.closeInput()) session.append("^D\n", commandStyle);
+            }
+        });
+        
         JButton execBtn = new JButton("Execute");
         JButton clearBtn = new JButton("Clear");
         JButton stopBtn = new JButton("Stop");
@@ -363,10 +470,15 @@ public class NodeJSRunner extends JFrame {
         
         JPanel topPanel = new JPanel(new BorderLayout());
         topPanel.add(new JLabel("Terminal"), BorderLayout.WEST);
+        
+        topPanel.add(scrollbackLabel, BorderLayout.EAST);
         topPanel.add(quickPanel, BorderLayout.CENTER);
         
         panel.add(topPanel, BorderLayout.NORTH);
-        panel.add(terminalScroll, BorderLayout.CENTER);
+        JPanel outputPanel = new JPanel(new BorderLayout());
+        outputPanel.add(sessions.getComponent(), BorderLayout.CENTER);
+        outputPanel.add(resourcePanel, BorderLayout.EAST);
+        panel.add(outputPanel, BorderLayout.CENTER);
         panel.add(cmdPanel, BorderLayout.SOUTH);
         
         return panel;
@@ -375,39 +487,390 @@ public class NodeJSRunner extends JFrame {
     private void refreshFileTree() {
         rootNode.removeAllChildren();
         rootNode.setUserObject(new FileNode(workingDirectory.getName(), workingDirectory, true));
-        loadDirectory(workingDirectory, rootNode);
+        
+        cancelScan();
+        ignoreRules = new IgnoreRules(workingDirectory.toPath(), DEFAULT_EXCLUDES);
+        loadedFolders.clear();
+        if (fileTreeWatcher != null) fileTreeWatcher.unwatchAll();
+        
+        // Start from the last session's tree if there is one
+        TreeSnapshot.Node snapshot = TreeSnapshot.load(workingDirectory.toPath());
+        if (snapshot != null && snapshot.loaded) {
+            restoreSnapshot(snapshot);
+            return;
+        }
+        
+        rootNode.add(new DefaultMutableTreeNode(LOADING_PLACEHOLDER));
         treeModel.reload();
+        loadChildren(rootNode, () -> fileTree.expandRow(0));
+    }
+
+    // Rebuild the loaded part of the tree from the last session's snapshot and
+    // re-open the folders that were expanded
+    private void restoreSnapshot(TreeSnapshot.Node snapshot) {
+        java.util.List<DefaultMutableTreeNode> expanded = new ArrayList<>();
+        restoreChildren(rootNode, snapshot, true, expanded);
+        treeModel.reload();
+
         fileTree.expandRow(0);
+        for (DefaultMutableTreeNode node : expanded) {
+            fileTree.expandPath(new TreePath(node.getPath()));
+        }
+        verifySnapshot();
+    }
+
+    // Add a snapshot folder's children under node; loaded sub folders are restored too,
+    // the rest get the usual placeholder. Only folders whose parents are expanded as well are collected
+    private void restoreChildren(DefaultMutableTreeNode node, TreeSnapshot.Node snapshot, boolean visible, java.util.List<DefaultMutableTreeNode> expanded) {
+        FileNode fileNode = (FileNode) node.getUserObject();
+        Path folder = fileNode.getFile().toPath();
+        fileNode.setLoaded(true);
+        loadedFolders.put(folder, node);
+        if (fileTreeWatcher != null) fileTreeWatcher.watch(folder);
+
+        for (TreeSnapshot.Node child : snapshot.children) {
+            Path path = folder.resolve(child.name);
+            if (!isShownInExplorer(path, child.directory)) continue; // Ignore rules may have changed since
+
+            DefaultMutableTreeNode childNode = new DefaultMutableTreeNode(new FileNode(child.name, path.toFile(), child.directory, child.modified));
+            node.add(childNode);
+            if (child.directory && child.loaded) {
+                boolean childVisible = visible && child.expanded;
+                if (childVisible) expanded.add(childNode);
+                restoreChildren(childNode, child, childVisible, expanded);
+            } else if (child.directory) {
+                childNode.add(new DefaultMutableTreeNode(LOADING_PLACEHOLDER));
+            }
+        }
     }
 
-    private void loadDirectory(File dir, DefaultMutableTreeNode node) {
-        File[] files = dir.listFiles();
-        if (files != null) {
-            Arrays.sort(files, (a, b) -> {
-                if (a.isDirectory() && !b.isDirectory()) return -1;
-                if (!a.isDirectory() && b.isDirectory()) return 1;
-                return a.getName().compareToIgnoreCase(b.getName());
+    // Compare a restored tree with the disk in the background. Only folders whose modification
+    // time changed are re-listed, and only their differences are patched into the tree
+    private void verifySnapshot() {
+        Map<Path, Long> folderTimes = new HashMap<>();
+        loadedFolders.forEach((folder, node) -> folderTimes.put(folder, ((FileNode) node.getUserObject()).getModified()));
+
+        explorerStatus.setText("Checking for changes...");
+        DirectoryScanner.Scan<Map<Path, java.util.List<DirectoryScanner.Entry>>> scan =
+            DirectoryScanner.listChanged(folderTimes, ignoreRules, this::showScanProgress);
+        currentScan = scan;
+
+        scan.result().whenComplete((changed, error) -> SwingUtilities.invokeLater(() -> {
+            if (scan != currentScan) return; // Cancelled by a directory change
+            currentScan = null;
+            explorerStatus.setText(" ");
+            if (changed == null) return;
+
+            changed.forEach((folder, entries) -> {
+                DefaultMutableTreeNode folderNode = loadedFolders.get(folder);
+                if (folderNode != null) syncChildren(folderNode, createTreeNodes(entries));
             });
+        }));
+    }
+
+    // Save the loaded part of the tree (with expanded folders) for the next launch
+    private void saveTreeSnapshot() {
+        if (!((FileNode) rootNode.getUserObject()).isLoaded()) return;
+
+        try {
+            TreeSnapshot.save(workingDirectory.toPath(), snapshotOf(rootNode));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private TreeSnapshot.Node snapshotOf(DefaultMutableTreeNode treeNode) {
+        FileNode fileNode = (FileNode) treeNode.getUserObject();
+        TreeSnapshot.Node node = new TreeSnapshot.Node(fileNode.getName(), fileNode.isDirectory(), fileNode.getModified());
+        node.loaded = fileNode.isLoaded();
+        node.expanded = fileTree.isExpanded(new TreePath(treeNode.getPath()));
+        if (node.loaded) {
+            for (int i = 0; i < treeNode.getChildCount(); i++) {
+                node.children.add(snapshotOf((DefaultMutableTreeNode) treeNode.getChildAt(i)));
+            }
+        }
+        return node;
+    }
+
+    // Show scan progress under the tree (called from scanner threads)
+    private void showScanProgress(int entries) {
+        SwingUtilities.invokeLater(() -> {
+            if (currentScan != null) explorerStatus.setText("Scanning... " + entries + " entries");
+        });
+    }
+
+    // Folders get a placeholder child so they show an expand handle before being read
+    private DefaultMutableTreeNode createTreeNode(DirectoryScanner.Entry entry) {
+        DefaultMutableTreeNode node = new DefaultMutableTreeNode(new FileNode(entry.name, entry.path.toFile(), entry.directory, entry.modified));
+        if (entry.directory) {
+            node.add(new DefaultMutableTreeNode(LOADING_PLACEHOLDER));
+        }
+        return node;
+    }
+    
+    private java.util.List<DefaultMutableTreeNode> createTreeNodes(java.util.List<DirectoryScanner.Entry> entries) {
+        java.util.List<DefaultMutableTreeNode> nodes = new ArrayList<>();
+        for (DirectoryScanner.Entry entry : entries) {
+            nodes.add(createTreeNode(entry));
+        }
+        return nodes;
+    }
+
+    // Reads one folder level in the background and replaces the placeholder with it
+    private void loadChildren(DefaultMutableTreeNode node, Runnable onLoaded) {
+        Object obj = node.getUserObject();
+        if (!(obj instanceof FileNode)) return;
+        
+        FileNode fileNode = (FileNode) obj;
+        if (!fileNode.isDirectory() || fileNode.isLoaded() || fileNode.isLoading()) return;
+        fileNode.setLoading(true);
+        
+        Workers.io().execute(() -> {
+            // Watch before listing so nothing created in between is missed
+            Path folder = fileNode.getFile().toPath();
+            if (fileTreeWatcher != null) fileTreeWatcher.watch(folder);
             
-            for (File file : files) {
-                if (!file.getName().startsWith(".") && !file.getName().equals("node_modules")) {
-                    FileNode fileNode = new FileNode(file.getName(), file, file.isDirectory());
-                    DefaultMutableTreeNode childNode = new DefaultMutableTreeNode(fileNode);
-                    node.add(childNode);
-                    
-                    if (file.isDirectory()) {
-                        loadDirectory(file, childNode);
-                    }
+            java.util.List<DefaultMutableTreeNode> children = createTreeNodes(listDirectory(folder));
+            
+            SwingUtilities.invokeLater(() -> {
+                if (node.getUserObject() != fileNode) return;
+                
+                // Insert before removing the placeholder so the folder doesn't collapse
+                int placeholders = node.getChildCount();
+                int[] indices = new int[children.size()];
+                for (int i = 0; i < children.size(); i++) {
+                    node.add(children.get(i));
+                    indices[i] = placeholders + i;
+                }
+                if (indices.length > 0) {
+                    treeModel.nodesWereInserted(node, indices);
+                }
+                while (placeholders-- > 0) {
+                    treeModel.removeNodeFromParent((DefaultMutableTreeNode) node.getChildAt(0));
+                }
+                
+                fileNode.setLoading(false);
+                fileNode.setLoaded(true);
+                loadedFolders.put(folder, node);
+                if (onLoaded != null) onLoaded.run();
+            });
+        });
+    }
+
+    private java.util.List<DirectoryScanner.Entry> listDirectory(Path dir) {
+        return DirectoryScanner.list(dir, ignoreRules);
+    }
+
+    private boolean isShownInExplorer(Path path, boolean directory) {
+        return ignoreRules.accept(path, directory);
+    }
+
+    // Explorer ordering - directories first, then names alphabetically (case only breaks ties)
+    private static int compareEntries(boolean dir1, String name1, boolean dir2, String name2) {
+        if (dir1 != dir2) return dir1 ? -1 : 1;
+        int result = name1.compareToIgnoreCase(name2);
+        return result != 0 ? result : name1.compareTo(name2);
+    }
+
+    // Refresh button - re-read every loaded folder (in parallel) and patch the differences into
+    // the tree, so expanded folders stay expanded (unlike refreshFileTree which rebuilds everything)
+    private void refreshLoadedFolders() {
+        cancelScan();
+
+        Set<Path> folders = new HashSet<>(loadedFolders.keySet());
+        explorerStatus.setText("Scanning...");
+        DirectoryScanner.Scan<DirectoryScanner.Entry> scan =
+            DirectoryScanner.scan(workingDirectory.toPath(), ignoreRules, folders::contains, this::showScanProgress);
+        currentScan = scan;
+
+        scan.result().whenComplete((root, error) -> SwingUtilities.invokeLater(() -> {
+            if (scan != currentScan) return; // Superseded or cancelled by a directory change
+            currentScan = null;
+            explorerStatus.setText(" ");
+            if (root != null) applyScan(root);
+        }));
+    }
+
+    // Stop a running scan, e.g. because the user switched to another directory
+    private void cancelScan() {
+        if (currentScan != null) {
+            currentScan.cancel();
+            currentScan = null;
+            explorerStatus.setText(" ");
+        }
+    }
+
+    // Patch every loaded folder that was part of a scan
+    private void applyScan(DirectoryScanner.Entry folder) {
+        if (folder.children == null) return;
+
+        DefaultMutableTreeNode folderNode = loadedFolders.get(folder.path);
+        if (folderNode != null) {
+            syncChildren(folderNode, createTreeNodes(folder.children));
+        }
+
+        for (DirectoryScanner.Entry child : folder.children) {
+            applyScan(child);
+        }
+    }
+
+    // Update the tree right after our own file operations instead of waiting for the watcher
+    private void syncTreeEntry(File file) {
+        Map<Path, Set<String>> changes = new HashMap<>();
+        changes.put(file.getAbsoluteFile().getParentFile().toPath(), new HashSet<>(Collections.singleton(file.getName())));
+        syncFolders(changes);
+    }
+
+    // Ignore file changes re-scan the loaded folders with fresh rules
+    private void onFileSystemChanges(Map<Path, Set<String>> changes) {
+        boolean rulesChanged = false;
+        for (Map.Entry<Path, Set<String>> change : changes.entrySet()) {
+            Set<String> names = change.getValue();
+            if (names == null || names.contains(IgnoreRules.GITIGNORE)) {
+                ignoreRules.invalidate(change.getKey());
+                rulesChanged = true;
+            }
+            if ((names == null || names.contains(IgnoreRules.PROJECT_IGNORE)) && change.getKey().equals(workingDirectory.toPath())) {
+                ignoreRules = new IgnoreRules(workingDirectory.toPath(), DEFAULT_EXCLUDES);
+                rulesChanged = true;
+            }
+        }
+        
+        syncFolders(changes);
+        if (rulesChanged) {
+            SwingUtilities.invokeLater(this::refreshLoadedFolders);
+        }
+    }
+
+    // Compare the given folders with the disk and patch the tree with targeted insert/remove
+    // events. Disk access happens on the calling thread, tree changes on the GUI thread.
+    // A null name set means the whole folder is re-listed, otherwise only those names are checked
+    private void syncFolders(Map<Path, Set<String>> changes) {
+        Map<Path, java.util.List<DefaultMutableTreeNode>> listings = new HashMap<>();
+        Map<Path, Map<String, DefaultMutableTreeNode>> entries = new HashMap<>();
+
+        for (Map.Entry<Path, Set<String>> change : changes.entrySet()) {
+            Path folder = change.getKey();
+            if (change.getValue() == null) {
+                listings.put(folder, createTreeNodes(listDirectory(folder)));
+            } else {
+                Map<String, DefaultMutableTreeNode> current = new HashMap<>();
+                for (String name : change.getValue()) {
+                    DirectoryScanner.Entry entry = DirectoryScanner.stat(folder.resolve(name));
+                    current.put(name, entry != null && isShownInExplorer(entry.path, entry.directory) ? createTreeNode(entry) : null);
                 }
+                entries.put(change.getKey(), current);
+            }
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            listings.forEach((folder, children) -> {
+                DefaultMutableTreeNode folderNode = loadedFolders.get(folder);
+                if (folderNode != null) syncChildren(folderNode, children);
+            });
+            entries.forEach((folder, current) -> {
+                DefaultMutableTreeNode folderNode = loadedFolders.get(folder);
+                if (folderNode != null) current.forEach((name, child) -> syncChild(folderNode, name, child));
+            });
+        });
+    }
+
+    // Make a loaded folder's children match a fresh (sorted) listing with one remove and one insert event
+    private void syncChildren(DefaultMutableTreeNode folderNode, java.util.List<DefaultMutableTreeNode> fresh) {
+        Map<String, Boolean> wanted = new HashMap<>();
+        for (DefaultMutableTreeNode child : fresh) {
+            FileNode fileNode = (FileNode) child.getUserObject();
+            wanted.put(fileNode.getName(), fileNode.isDirectory());
+        }
+
+        // Drop children that are gone or changed between file and folder
+        java.util.List<Integer> removedIndices = new ArrayList<>();
+        java.util.List<Object> removedNodes = new ArrayList<>();
+        for (int i = 0; i < folderNode.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) folderNode.getChildAt(i);
+            FileNode fileNode = (FileNode) child.getUserObject();
+            Boolean isDirectory = wanted.get(fileNode.getName());
+            if (isDirectory == null || isDirectory != fileNode.isDirectory()) {
+                removedIndices.add(i);
+                removedNodes.add(child);
+            }
+        }
+        for (int i = removedIndices.size() - 1; i >= 0; i--) {
+            forgetFolder((DefaultMutableTreeNode) removedNodes.get(i));
+            folderNode.remove(removedIndices.get(i));
+        }
+        if (!removedIndices.isEmpty()) {
+            treeModel.nodesWereRemoved(folderNode, toIntArray(removedIndices), removedNodes.toArray());
+        }
+
+        // The remaining children are now an ordered subset of the listing - merge in the new ones
+        java.util.List<Integer> insertedIndices = new ArrayList<>();
+        int index = 0;
+        for (DefaultMutableTreeNode child : fresh) {
+            String name = ((FileNode) child.getUserObject()).getName();
+            if (index < folderNode.getChildCount()
+                    && ((FileNode) ((DefaultMutableTreeNode) folderNode.getChildAt(index)).getUserObject()).getName().equals(name)) {
+                index++;
+                continue;
+            }
+            folderNode.insert(child, index);
+            insertedIndices.add(index++);
+        }
+        if (!insertedIndices.isEmpty()) {
+            treeModel.nodesWereInserted(folderNode, toIntArray(insertedIndices));
+        }
+    }
+
+    // Bring a single entry of a loaded folder up to date - child is null when it no longer exists
+    private void syncChild(DefaultMutableTreeNode folderNode, String name, DefaultMutableTreeNode child) {
+        FileNode fresh = child == null ? null : (FileNode) child.getUserObject();
+
+        for (int i = 0; i < folderNode.getChildCount(); i++) {
+            DefaultMutableTreeNode existing = (DefaultMutableTreeNode) folderNode.getChildAt(i);
+            FileNode fileNode = (FileNode) existing.getUserObject();
+            if (fileNode.getName().equals(name)) {
+                if (fresh != null && fresh.isDirectory() == fileNode.isDirectory()) return; // Unchanged
+                forgetFolder(existing);
+                treeModel.removeNodeFromParent(existing);
+                break;
+            }
+        }
+
+        if (fresh != null) {
+            int index = 0;
+            while (index < folderNode.getChildCount()) {
+                FileNode sibling = (FileNode) ((DefaultMutableTreeNode) folderNode.getChildAt(index)).getUserObject();
+                if (compareEntries(sibling.isDirectory(), sibling.getName(), fresh.isDirectory(), fresh.getName()) > 0) break;
+                index++;
             }
+            treeModel.insertNodeInto(child, folderNode, index);
         }
     }
 
+    // A folder node left the tree - stop tracking it and everything loaded below it
+    private void forgetFolder(DefaultMutableTreeNode node) {
+        FileNode fileNode = (FileNode) node.getUserObject();
+        if (!fileNode.isDirectory()) return;
+
+        Path folder = fileNode.getFile().toPath();
+        loadedFolders.keySet().removeIf(path -> path.startsWith(folder));
+        if (fileTreeWatcher != null) fileTreeWatcher.unwatch(folder);
+    }
+
+    private static int[] toIntArray(java.util.List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
     private void openDirectory() {
         JFileChooser chooser = new JFileChooser(workingDirectory);
         chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
         
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            saveTreeSnapshot();
             workingDirectory = chooser.getSelectedFile();
             refreshFileTree();
             appendToTerminal("\n[Directory changed to: " + workingDirectory.getAbsolutePath() + "]\n\n", successStyle);
@@ -430,33 +893,150 @@ public class NodeJSRunner extends JFrame {
         String filePath = file.getAbsolutePath();
         
         if (openFiles.containsKey(filePath)) {
-            int index = editorTabs.indexOfComponent(openFiles.get(filePath).scrollPane);
+            int index = editorTabs.indexOfComponent(openFiles.get(filePath).component());
             editorTabs.setSelectedIndex(index);
             return;
         }
         
-        try {
-            String content = Files.readString(file.toPath());
-            
-            JTextArea editor = new JTextArea(content);
-            editor.setFont(new Font("Consolas", Font.PLAIN, 14));
-            editor.setTabSize(2);
-            editor.setBackground(new Color(30, 30, 30));
-            editor.setForeground(new Color(200, 200, 200));
-            editor.setCaretColor(Color.WHITE);
-            
-            JScrollPane scrollPane = new JScrollPane(editor);
+        // Read in the background behind a placeholder tab - a second double-click just selects it
+        FileLoader loader = new FileLoader(file);
+        EditorTab tab = new EditorTab(file, loader);
+        openFiles.put(filePath, tab);
+        tabsByComponent.put(loader, tab);
+        editorTabs.addTab(file.getName(), loader);
+        editorTabs.setSelectedComponent(loader);
+        
+        loader.load().whenComplete((document, error) -> SwingUtilities.invokeLater(() -> fileLoaded(tab, document, error)));
+    }
+
+    private void tabSelected() {
+        int index = editorTabs.getSelectedIndex();
+        EditorTab tab = index == -1 ? null : tabsByComponent.get(editorTabs.getComponentAt(index));
+        if (tab == null) return;
+        
+        tab.lastSelected = ++selections;
+        if (tab.hibernated) {
+            tab.hibernated = false;
+            tab.loader.load().whenComplete((document, error) -> SwingUtilities.invokeLater(() -> fileLoaded(tab, document, error)));
+        }
+        hibernateIdleTabs();
+    }
+
+    // Over TAB_BUDGET (nodeide.tabs.budget MB, default a quarter of the heap), drop the editors of the
+    // least recently selected tabs with nothing unsaved; they are read again when selected
+    private void hibernateIdleTabs() {
+        java.util.List<EditorTab> loaded = new ArrayList<>();
+        long used = 0;
+        for (EditorTab tab : openFiles.values()) {
+            if (tab.editor == null) continue;
+            loaded.add(tab);
+            used += tab.footprint();
+        }
+        if (used <= TAB_BUDGET) return;
+        
+        Component selected = editorTabs.getSelectedComponent();
+        loaded.sort(Comparator.comparingLong(tab -> tab.lastSelected));
+        for (EditorTab tab : loaded) {
+            if (used <= TAB_BUDGET) break;
+            if (tab.scrollPane == selected) continue;
+            if (!fileSaver.isSaved(tab.file.toPath(), ((PieceDocument) tab.editor.getDocument()).snapshot())) continue;
             
-            EditorTab tab = new EditorTab(file, editor, scrollPane);
-            openFiles.put(filePath, tab);
+            used -= tab.footprint();
+            int index = editorTabs.indexOfComponent(tab.scrollPane);
+            tab.caret = tab.editor.getCaretPosition();
+            tab.scroll = tab.scrollPane.getViewport().getViewPosition();
+            if (tab.journal != null) tab.journal.discard();
+            fileSaver.closed(tab.file.toPath());
             
-            editorTabs.addTab(file.getName(), scrollPane);
-            editorTabs.setSelectedComponent(scrollPane);
+            tabsByComponent.remove(tab.scrollPane);
+            tab.editor = null;
+            tab.scrollPane = null;
+            tab.journal = null;
+            tab.loader = new FileLoader(tab.file);
+            tab.hibernated = true;
+            tabsByComponent.put(tab.loader, tab);
+            editorTabs.setComponentAt(index, tab.loader);
+        }
+    }
+
+    private void recoverEdits() {
+        Path project = workingDirectory.toPath();
+        Workers.io().execute(() -> {
+            java.util.List<String> problems = new ArrayList<>();
+            java.util.List<EditJournal.Recovered> found = EditJournal.recover(project, problems::add);
+            SwingUtilities.invokeLater(() -> {
+                for (String problem : problems) appendToTerminal("[Dropped unsaved edits: " + problem + "]\n", errorStyle);
+                for (EditJournal.Recovered recovered : found) {
+                    recoveredEdits.put(recovered.file.toFile().getAbsolutePath(), recovered);
+                    openFile(recovered.file.toFile());
+                }
+            });
+        });
+    }
+
+    private void fileLoaded(EditorTab tab, javax.swing.text.Document document, Throwable error) {
+        FileLoader loader = tab.loader;
+        int index = editorTabs.indexOfComponent(loader);
+        if (index == -1) return;
+        
+        try {
+            if (error != null) {
+                throw error instanceof CompletionException ? error.getCause() : error;
+            }
             
-            appendToTerminal("[Opened: " + file.getName() + "]\n", successStyle);
+            if (document == null) {
+                tab.viewer = new HugeFileViewer(tab.file);
+                editorTabs.setComponentAt(index, tab.viewer);
+                editorTabs.setTitleAt(index, tab.file.getName() + " (read-only)");
+                appendToTerminal("[Opened read-only: " + tab.file.getName() + String.format(" (%.1f MB)", tab.file.length() / (1024.0 * 1024)) + "]\n", successStyle);
+            } else {
+                JTextArea editor = new JTextArea(document);
+                editor.setFont(new Font("Consolas", Font.PLAIN, 14));
+                editor.setTabSize(2);
+                editor.setBackground(new Color(30, 30, 30));
+                editor.setForeground(new Color(200, 200, 200));
+                editor.setCaretColor(Color.WHITE);
+                SyntaxHighlighter.install(editor, tab.file.getName());
+                
+                tab.editor = editor;
+                tab.scrollPane = new JScrollPane(editor);
+                fileSaver.opened(tab.file.toPath(), ((PieceDocument) document).snapshot(), loader.getDiskAttributes());
+                EditJournal.Recovered recovered = recoveredEdits.remove(tab.file.getAbsolutePath());
+                if (recovered != null) {
+                    try {
+                        recovered.replay(document);
+                        appendToTerminal("[Recovered " + recovered.edits() + " unsaved edits: " + tab.file.getName() + "]\n", normalStyle);
+                    } catch (BadLocationException e) {
+                        recovered = null;
+                        appendToTerminal("[Could not recover edits of " + tab.file.getName() + ": " + e.getMessage() + "]\n", errorStyle);
+                    }
+                }
+                tab.journal = new EditJournal(tab.file.toPath(), (PieceDocument) document, loader.getDiskAttributes(), recovered != null);
+                editorTabs.setComponentAt(index, tab.scrollPane);
+                if (tab.caret >= 0) {
+                    editor.setCaretPosition(Math.min(tab.caret, document.getLength()));
+                    Point scroll = tab.scroll;
+                    JScrollPane scrollPane = tab.scrollPane;
+                    SwingUtilities.invokeLater(() -> scrollPane.getViewport().setViewPosition(scroll));
+                    tab.caret = -1;
+                } else {
+                    appendToTerminal("[Opened: " + tab.file.getName() + "]\n", successStyle);
+                }
+            }
+            tab.loader = null;
+            tabsByComponent.remove(loader);
+            tabsByComponent.put(tab.component(), tab);
+            hibernateIdleTabs();
             
-        } catch (IOException e) {
-            appendToTerminal("[Error opening file: " + e.getMessage() + "]\n", errorStyle);
+        } catch (Throwable e) {
+            openFiles.remove(tab.file.getAbsolutePath());
+            tabsByComponent.remove(loader);
+            editorTabs.remove(index);
+            if (e instanceof CancellationException) {
+                appendToTerminal("[Cancelled: " + tab.file.getName() + "]\n", normalStyle);
+            } else {
+                appendToTerminal("[Error opening file: " + e.getMessage() + "]\n", errorStyle);
+            }
         }
     }
 
@@ -466,7 +1046,7 @@ public class NodeJSRunner extends JFrame {
             File newFile = new File(workingDirectory, fileName.trim());
             try {
                 if (newFile.createNewFile()) {
-                    refreshFileTree();
+                    syncTreeEntry(newFile);
                     openFile(newFile);
                     appendToTerminal("[Created: " + fileName + "]\n", successStyle);
                 } else {
@@ -483,7 +1063,7 @@ public class NodeJSRunner extends JFrame {
         if (folderName != null && !folderName.trim().isEmpty()) {
             File newFolder = new File(workingDirectory, folderName.trim());
             if (newFolder.mkdir()) {
-                refreshFileTree();
+                syncTreeEntry(newFolder);
                 appendToTerminal("[Created folder: " + folderName + "]\n", successStyle);
             } else {
                 appendToTerminal("[Error creating folder]\n", errorStyle);
@@ -495,46 +1075,73 @@ public class NodeJSRunner extends JFrame {
         int index = editorTabs.getSelectedIndex();
         if (index == -1) return;
         
-        JScrollPane scrollPane = (JScrollPane) editorTabs.getComponentAt(index);
+        EditorTab tab = tabsByComponent.get(editorTabs.getComponentAt(index));
+        if (tab == null) return;
         
-        for (EditorTab tab : openFiles.values()) {
-            if (tab.scrollPane == scrollPane) {
-                saveFile(tab);
-                break;
-            }
+        if (tab.editor == null) {
+            appendToTerminal("[" + tab.file.getName() + (tab.viewer != null ? " is open read-only]\n" : " is still loading]\n"), errorStyle);
+        } else {
+            saveFile(tab).thenAccept(written -> {
+                if (!written) SwingUtilities.invokeLater(() -> appendToTerminal("[No changes: " + tab.file.getName() + "]\n", normalStyle));
+            });
         }
     }
 
     private void saveAllFiles() {
+        java.util.List<CompletableFuture<Boolean>> saves = new ArrayList<>();
         for (EditorTab tab : openFiles.values()) {
-            saveFile(tab);
+            if (tab.editor != null) saves.add(saveFile(tab));
         }
-        appendToTerminal("[All files saved]\n", successStyle);
+        
+        CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+            long failed = saves.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+            long written = saves.stream().filter(save -> !save.isCompletedExceptionally() && save.join()).count();
+            String summary = "[All files saved: " + written + " written, " + (saves.size() - written - failed) + " unchanged"
+                + (failed > 0 ? ", " + failed + " failed]\n" : "]\n");
+            SwingUtilities.invokeLater(() -> appendToTerminal(summary, failed > 0 ? errorStyle : successStyle));
+        });
     }
 
-    private void saveFile(EditorTab tab) {
-        try {
-            Files.writeString(tab.file.toPath(), tab.editor.getText());
-            appendToTerminal("[Saved: " + tab.file.getName() + "]\n", successStyle);
-        } catch (IOException e) {
-            appendToTerminal("[Error saving: " + e.getMessage() + "]\n", errorStyle);
-        }
+    private CompletableFuture<Boolean> saveFile(EditorTab tab) {
+        if (tab.editor == null) return CompletableFuture.completedFuture(false);
+        
+        PieceTable.Snapshot text = ((PieceDocument) tab.editor.getDocument()).snapshot();
+        CompletableFuture<Boolean> saved = fileSaver.save(tab.file.toPath(), text);
+        saved.whenComplete((written, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                appendToTerminal("[Error saving " + tab.file.getName() + ": " + cause.getMessage() + "]\n", errorStyle);
+                return;
+            }
+            if (tab.journal != null) tab.journal.saved(text, fileSaver.diskAttributes(tab.file.toPath()));
+            if (written) appendToTerminal("[Saved: " + tab.file.getName() + "]\n", successStyle);
+        }));
+        return saved;
     }
 
     private void closeCurrentTab() {
         int index = editorTabs.getSelectedIndex();
         if (index == -1) return;
         
-        JScrollPane scrollPane = (JScrollPane) editorTabs.getComponentAt(index);
-        
-        for (Map.Entry<String, EditorTab> entry : openFiles.entrySet()) {
-            if (entry.getValue().scrollPane == scrollPane) {
-                openFiles.remove(entry.getKey());
-                break;
-            }
+        EditorTab tab = tabsByComponent.get(editorTabs.getComponentAt(index));
+        if (tab != null) {
+            closeTab(tab);
+        } else {
+            editorTabs.remove(index);
         }
+    }
+
+    private void closeTab(EditorTab tab) {
+        Component component = tab.component();
+        tabsByComponent.remove(component);
+        openFiles.remove(tab.file.getAbsolutePath());
+        if (tab.loader != null) tab.loader.cancel();
+        if (tab.viewer != null) tab.viewer.close();
+        if (tab.journal != null) tab.journal.discard();
+        fileSaver.closed(tab.file.toPath());
         
-        editorTabs.remove(index);
+        int index = editorTabs.indexOfComponent(component);
+        if (index != -1) editorTabs.remove(index);
     }
 
     private void deleteSelected() {
@@ -552,7 +1159,10 @@ public class NodeJSRunner extends JFrame {
             
             if (confirm == JOptionPane.YES_OPTION) {
                 if (deleteRecursive(file)) {
-                    refreshFileTree();
+                    for (EditorTab tab : new ArrayList<>(openFiles.values())) {
+                        if (tab.file.toPath().startsWith(file.toPath())) closeTab(tab); // The file or one inside the folder
+                    }
+                    syncTreeEntry(file);
                     appendToTerminal("[Deleted: " + file.getName() + "]\n", successStyle);
                 } else {
                     appendToTerminal("[Error deleting file]\n", errorStyle);
@@ -588,7 +1198,8 @@ public class NodeJSRunner extends JFrame {
             if (newName != null && !newName.trim().isEmpty()) {
                 File newFile = new File(file.getParent(), newName.trim());
                 if (file.renameTo(newFile)) {
-                    refreshFileTree();
+                    syncTreeEntry(file);
+                    syncTreeEntry(newFile);
                     appendToTerminal("[Renamed to: " + newName + "]\n", successStyle);
                 } else {
                     appendToTerminal("[Error renaming file]\n", errorStyle);
@@ -604,125 +1215,5090 @@ public class NodeJSRunner extends JFrame {
             return;
         }
         
-        JScrollPane scrollPane = (JScrollPane) editorTabs.getComponentAt(index);
+        EditorTab tab = tabsByComponent.get(editorTabs.getComponentAt(index));
+        if (tab != null) {
+            saveFile(tab).whenComplete((written, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) return;
+                if (fastRun.isSelected()) {
+                    runInWarmWorker(tab.file);
+                } else {
+                    executeQuickCommand("node " + tab.file.getName());
+                }
+            }));
+        }
+    }
+
+    // No shell and no Node startup - stdin is not connected, so interactive scripts need a normal run
+    private void runInWarmWorker(File file) {
+        NodeWorkerPool pool = nodeWorkers();
+        String command = "node " + file.getName() + " (warm)";
+        ProcessSession session = sessions.sessionForCommand();
+        session.begin(command);
+        session.append("\n$ " + command + "\n", commandStyle);
         
-        for (EditorTab tab : openFiles.values()) {
-            if (tab.scrollPane == scrollPane) {
-                saveFile(tab);
-                executeQuickCommand("node " + tab.file.getName());
-                break;
+        Workers.io().execute(() -> {
+            try {
+                AnsiParser ansi = new AnsiParser(ansiStyles);
+                int exitCode = pool.run(file.toPath(), text -> session.received(text, ansi),
+                    process -> session.attach(process, false)).get();
+                CommandHistory.RunRecord run = session.finish(exitCode);
+                commandHistory().add(run);
+                
+                if (exitCode == 0) {
+                    session.append("[✓ Done in " + MetricsPanel.millis(run.wallMillis) + "]\n", successStyle);
+                } else {
+                    session.append("[✗ Exit code: " + exitCode + " after " + MetricsPanel.millis(run.wallMillis) + "]\n", errorStyle);
+                }
+            } catch (Exception e) {
+                commandHistory().add(session.finish(-1));
+                session.append("[Error: " + e.getMessage() + "]\n", errorStyle);
             }
+        });
+    }
+
+    private NodeWorkerPool nodeWorkers() {
+        if (nodeWorkers != null && !nodeWorkers.getDirectory().equals(workingDirectory)) {
+            nodeWorkers.shutdown();
+            nodeWorkers = null;
+        }
+        if (nodeWorkers == null) {
+            nodeWorkers = new NodeWorkerPool(workingDirectory);
+        }
+        return nodeWorkers;
+    }
+
+    private synchronized CommandHistory commandHistory() {
+        if (commandHistory == null || !commandHistory.getRoot().equals(workingDirectory.toPath())) {
+            commandHistory = new CommandHistory(workingDirectory.toPath());
         }
+        return commandHistory;
+    }
+
+    private void showCommandMetrics() {
+        JDialog dialog = new JDialog(this, "Command Metrics - " + workingDirectory.getName(), false);
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        dialog.add(new MetricsPanel(commandHistory()));
+        dialog.setSize(900, 320);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
     }
 
     private void executeQuickCommand(String command) {
-        commandField.setText(command);
-        executeCommand();
+        runCommand(command);
     }
 
+    // While the selected tab's process is running, typed lines go to its stdin
     private void executeCommand() {
+        ProcessSession foreground = sessions.current();
+        if (foreground.acceptsInput()) {
+            String input = commandField.getText();
+            commandField.setText("");
+            foreground.append(input + "\n", commandStyle);
+            foreground.sendInput(input);
+            return;
+        }
+        
         String command = commandField.getText().trim();
         if (command.isEmpty()) return;
         
-        appendToTerminal("\n$ " + command + "\n", commandStyle);
         commandField.setText("");
+        runCommand(command);
+    }
+
+    private void runCommand(String command) {
+        ProcessSession session = sessions.sessionForCommand();
+        session.begin(command);
+        session.append("\n$ " + command + "\n", commandStyle);
         
-        new Thread(() -> {
+        Workers.io().execute(() -> {
             try {
-                ProcessBuilder pb = new ProcessBuilder();
-                String os = System.getProperty("os.name").toLowerCase();
-                
-                if (os.contains("win")) {
-                    pb.command("cmd.exe", "/c", command);
-                } else {
-                    pb.command("sh", "-c", command);
-                }
+                ProcessBuilder pb = new ProcessBuilder(Launcher.command(command, workingDirectory));
                 
                 pb.directory(workingDirectory);
                 pb.redirectErrorStream(true);
+                pb.environment().putIfAbsent("FORCE_COLOR", "1");
                 
-                currentProcess = pb.start();
+                Process process = pb.start();
+                session.attach(process);
                 
-                BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(currentProcess.getInputStream())
-                );
+                AnsiParser ansi = new AnsiParser(ansiStyles);
+                OutputReader.pump(process.getInputStream(), text -> session.received(text, ansi));
                 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    final String output = line + "\n";
-                    SwingUtilities.invokeLater(() -> appendToTerminal(output, normalStyle));
-                }
+                int exitCode = process.waitFor();
+                CommandHistory.RunRecord run = session.finish(exitCode);
+                commandHistory().add(run);
                 
-                int exitCode = currentProcess.waitFor();
-                
-                SwingUtilities.invokeLater(() -> {
-                    if (exitCode == 0) {
-                        appendToTerminal("[✓ Done]\n", successStyle);
-                    } else {
-                        appendToTerminal("[✗ Exit code: " + exitCode + "]\n", errorStyle);
-                    }
-                    refreshFileTree();
-                });
+                if (exitCode == 0) {
+                    session.append("[✓ Done in " + MetricsPanel.millis(run.wallMillis) + "]\n", successStyle);
+                } else {
+                    session.append("[✗ Exit code: " + exitCode + " after " + MetricsPanel.millis(run.wallMillis) + "]\n", errorStyle);
+                }
                 
             } catch (Exception e) {
-                SwingUtilities.invokeLater(() -> 
-                    appendToTerminal("[Error: " + e.getMessage() + "]\n", errorStyle)
-                );
+                commandHistory().add(session.finish(-1));
+                session.append("[Error: " + e.getMessage() + "]\n", errorStyle);
             }
-        }).start();
+        });
     }
 
     private void stopProcess() {
-        if (currentProcess != null && currentProcess.isAlive()) {
-            currentProcess.destroyForcibly();
+        if (sessions.current().stop()) {
             appendToTerminal("\n[Process terminated]\n", errorStyle);
         }
     }
 
     private void clearTerminal() {
-        try {
-            terminalDoc.remove(0, terminalDoc.getLength());
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-        }
+        sessions.current().clear();
+    }
+
+    private void sessionChanged(ProcessSession session) {
+        scrollbackLabel.setText(session.getScrollback().describe());
+        boolean input = session.acceptsInput();
+        prompt.setText(input ? ">" : "$");
+        prompt.setForeground(input ? Color.YELLOW : Color.GREEN);
+        resourcePanel.show(session.getStats(), session.isBusy());
     }
 
+    // Goes to the selected terminal tab
     private void appendToTerminal(String text, SimpleAttributeSet style) {
-        try {
-            terminalDoc.insertString(terminalDoc.getLength(), text, style);
-            terminalArea.setCaretPosition(terminalDoc.getLength());
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-        }
+        sessions.current().append(text, style);
     }
 
-    // Helper class to store file information while displaying only the name
-    class FileNode {
-        private String name;
-        private File file;
-        private boolean isDirectory;
-        
-        public FileNode(String name, File file, boolean isDirectory) {
-            this.name = name;
-            this.file = file;
-            this.isDirectory = isDirectory;
+    // The one place background work runs, instead of a new Thread per job:
+    //  - io():    blocking work (process pipes, folder reads, the file watcher). Virtual threads
+    //             when running on Java 21+, otherwise a cached pool of named daemon threads
+    //  - cpu():   CPU-heavy work, bounded to the core count minus one for the GUI thread
+    //  - walks(): the fork/join pool that scans folder trees in parallel
+    //  - timer(): one thread for periodic jobs (keep them short, hand real work to the others)
+    // shutdown() stops all of them, interrupting whatever is still running
+    static class Workers {
+        private static final ExecutorService IO = createIoExecutor();
+        private static final ExecutorService CPU = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), daemonThreads("nodeide-cpu-"));
+        // Directory reads are I/O bound, so allow a few more workers than cores
+        private static final ForkJoinPool WALKS = new ForkJoinPool(
+            Math.min(16, Math.max(4, Runtime.getRuntime().availableProcessors() * 2)),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("nodeide-scan-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(daemonThreads("nodeide-timer-"));
+
+        static ExecutorService io() {
+            return IO;
         }
-        
-        public String getName() {
-            return name;
+
+        static ExecutorService cpu() {
+            return CPU;
+        }
+
+        static ForkJoinPool walks() {
+            return WALKS;
+        }
+
+        static ScheduledExecutorService timer() {
+            return TIMER;
+        }
+
+        static void shutdown() {
+            IO.shutdownNow();
+            CPU.shutdownNow();
+            WALKS.shutdownNow();
+            TIMER.shutdownNow();
+        }
+
+        // Looked up by reflection so the sources still compile on Java 17
+        private static ExecutorService createIoExecutor() {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "nodeide-io-", 0L);
+                ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(daemonThreads("nodeide-io-"));
+            }
+        }
+
+        private static ThreadFactory daemonThreads(String prefix) {
+            AtomicInteger count = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    // Watches the folders that are loaded in the explorer and reports which entries changed.
+    // Events are collected until the file system has been quiet for a moment, so a burst
+    // (npm install, git checkout) arrives as one batch instead of thousands of tree updates
+    static class FileTreeWatcher {
+        private static final long QUIET_PERIOD_MS = 150;
+        private static final long MAX_BATCH_DELAY_MS = 1000;
+        // Above this many changed names in one folder the whole folder is re-listed instead
+        static final int MAX_NAMES_PER_FOLDER = 64;
+
+        private final WatchService watchService;
+        private final Map<WatchKey, Path> watchedFolders = new ConcurrentHashMap<>();
+        // Receives folder -> changed entry names; a null name set means "re-list the whole folder"
+        private final Consumer<Map<Path, Set<String>>> listener;
+
+        FileTreeWatcher(Consumer<Map<Path, Set<String>>> listener) throws IOException {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.listener = listener;
+
+            Workers.io().execute(this::run);
+        }
+
+        void watch(Path folder) {
+            try {
+                // Modify events only matter for ignore files (see collect), but there is no way to ask for just those
+                WatchKey key = folder.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedFolders.put(key, folder);
+            } catch (IOException | ClosedWatchServiceException e) {
+                // Folder vanished or can't be watched - it will simply not update live
+            }
+        }
+
+        // Stop watching a folder and everything below it
+        void unwatch(Path folder) {
+            watchedFolders.entrySet().removeIf(entry -> {
+                if (!entry.getValue().startsWith(folder)) return false;
+                entry.getKey().cancel();
+                return true;
+            });
+        }
+
+        void unwatchAll() {
+            for (WatchKey key : watchedFolders.keySet()) {
+                key.cancel();
+            }
+            watchedFolders.clear();
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    Map<Path, Set<String>> batch = new LinkedHashMap<>();
+                    long deadline = System.currentTimeMillis() + MAX_BATCH_DELAY_MS;
+
+                    // Keep draining until things calm down or the batch has waited long enough
+                    while (key != null) {
+                        collect(key, batch);
+                        long wait = Math.min(QUIET_PERIOD_MS, deadline - System.currentTimeMillis());
+                        if (wait <= 0) break;
+                        key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                    }
+
+                    if (!batch.isEmpty()) {
+                        listener.accept(batch);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Watcher shut down
+            }
+        }
+
+        private void collect(WatchKey key, Map<Path, Set<String>> batch) {
+            Path folder = watchedFolders.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (folder == null) continue;
+
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    batch.put(folder, null); // Events were lost - re-list the folder
+                    continue;
+                }
+
+                // A file written in place changes nothing in the tree - unless it changes what is ignored
+                String name = event.context().toString();
+                if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY
+                        && !name.equals(IgnoreRules.GITIGNORE) && !name.equals(IgnoreRules.PROJECT_IGNORE)) continue;
+
+                if (batch.containsKey(folder) && batch.get(folder) == null) continue;
+                Set<String> names = batch.computeIfAbsent(folder, k -> new HashSet<>());
+                names.add(name);
+                if (names.size() > MAX_NAMES_PER_FOLDER) {
+                    batch.put(folder, null);
+                }
+            }
+            if (!key.reset()) {
+                watchedFolders.remove(key); // Folder was deleted
+            }
+        }
+    }
+
+    // Reads folders with one attribute fetch per entry and scans whole subtrees on a
+    // fork/join pool, so sibling folders are read in parallel instead of one by one
+    static class DirectoryScanner {
+        private static final ForkJoinPool POOL = Workers.walks();
+        private static final long PROGRESS_INTERVAL_MS = 100;
+
+        // Decides which entries are part of the tree (hidden files, ignored folders, ...)
+        interface Filter {
+            boolean accept(Path path, boolean directory);
+
+            // True when the entry can be dropped on its name alone, before reading its attributes
+            default boolean rejectsName(Path path) {
+                return false;
+            }
+        }
+
+        // One file or folder with the attributes read during the scan
+        static class Entry {
+            final Path path;
+            final String name;
+            final boolean directory;
+            final long modified;
+            java.util.List<Entry> children; // null when the folder was not scanned
+
+            Entry(Path path, String name, boolean directory, long modified) {
+                this.path = path;
+                this.name = name;
+                this.directory = directory;
+                this.modified = modified;
+            }
+        }
+
+        // A running scan - can be cancelled and reports how far it got
+        static class Scan<T> {
+            private final AtomicBoolean cancelled = new AtomicBoolean();
+            private final AtomicInteger folders = new AtomicInteger();
+            private final AtomicInteger entries = new AtomicInteger();
+            private final AtomicLong lastProgress = new AtomicLong();
+            private final CompletableFuture<T> result = new CompletableFuture<>();
+            private final IntConsumer progress;
+
+            Scan(IntConsumer progress) {
+                this.progress = progress;
+            }
+
+            void cancel() {
+                cancelled.set(true);
+                result.cancel(false);
+            }
+
+            boolean isCancelled() {
+                return cancelled.get();
+            }
+
+            int getFolderCount() {
+                return folders.get();
+            }
+
+            int getEntryCount() {
+                return entries.get();
+            }
+
+            // Completes with the scan's result, or exceptionally when cancelled or failed
+            CompletableFuture<T> result() {
+                return result;
+            }
+
+            private void folderScanned(int entryCount) {
+                folders.incrementAndGet();
+                int total = entries.addAndGet(entryCount);
+
+                // Report at most every PROGRESS_INTERVAL_MS, from whichever worker gets there first
+                long now = System.currentTimeMillis();
+                long last = lastProgress.get();
+                if (progress != null && now - last >= PROGRESS_INTERVAL_MS && lastProgress.compareAndSet(last, now)) {
+                    progress.accept(total);
+                }
+            }
+        }
+
+        // Read the attributes of a single path, or null if it doesn't exist
+        static Entry stat(Path path) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                return new Entry(path, path.getFileName().toString(), attrs.isDirectory(), attrs.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        // List one folder (no recursion), directories first then by name. Each entry's
+        // attributes are read exactly once, the sort only compares the cached values
+        static java.util.List<Entry> list(Path folder, Filter filter) {
+            java.util.List<Entry> result = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path path : stream) {
+                    if (filter.rejectsName(path)) continue;
+                    Entry entry = stat(path);
+                    if (entry != null && filter.accept(path, entry.directory)) {
+                        result.add(entry);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // Unreadable folder - show whatever we got
+            }
+            result.sort((e1, e2) -> compareEntries(e1.directory, e1.name, e2.directory, e2.name));
+            return result;
+        }
+
+        // Scan root and every sub folder accepted by descend, in parallel. Progress receives the
+        // number of entries read so far (from a worker thread)
+        static Scan<Entry> scan(Path root, Filter filter, Predicate<Path> descend, IntConsumer progress) {
+            Scan<Entry> scan = new Scan<>(progress);
+            Entry rootEntry = new Entry(root, String.valueOf(root.getFileName()), true, 0);
+            POOL.execute(() -> {
+                try {
+                    new ScanTask(scan, rootEntry, filter, descend).invoke();
+                    scan.result.complete(rootEntry);
+                } catch (Throwable t) {
+                    scan.result.completeExceptionally(t);
+                }
+            });
+            return scan;
+        }
+
+        // Re-list, in parallel, only the folders whose modification time no longer matches the
+        // known one (adding or removing entries touches the folder's mtime). Completes with
+        // folder -> fresh listing for the folders that changed
+        static Scan<Map<Path, java.util.List<Entry>>> listChanged(Map<Path, Long> knownModified, Filter filter, IntConsumer progress) {
+            Scan<Map<Path, java.util.List<Entry>>> scan = new Scan<>(progress);
+            Map<Path, java.util.List<Entry>> changed = new ConcurrentHashMap<>();
+            POOL.execute(() -> {
+                try {
+                    java.util.List<RecursiveAction> tasks = new ArrayList<>();
+                    knownModified.forEach((folder, modified) -> tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            if (scan.isCancelled()) throw new CancellationException();
+
+                            Entry current = stat(folder);
+                            if (current == null || current.modified != modified) {
+                                java.util.List<Entry> children = list(folder, filter);
+                                changed.put(folder, children);
+                                scan.folderScanned(children.size());
+                            } else {
+                                scan.folderScanned(0);
+                            }
+                        }
+                    }));
+                    ForkJoinTask.invokeAll(tasks);
+                    scan.result.complete(changed);
+                } catch (Throwable t) {
+                    scan.result.completeExceptionally(t);
+                }
+            });
+            return scan;
+        }
+
+        private static class ScanTask extends RecursiveAction {
+            private final Scan<Entry> scan;
+            private final Entry folder;
+            private final Filter filter;
+            private final Predicate<Path> descend;
+
+            ScanTask(Scan<Entry> scan, Entry folder, Filter filter, Predicate<Path> descend) {
+                this.scan = scan;
+                this.folder = folder;
+                this.filter = filter;
+                this.descend = descend;
+            }
+
+            @Override
+            protected void compute() {
+                if (scan.isCancelled()) throw new CancellationException();
+
+                folder.children = list(folder.path, filter);
+                scan.folderScanned(folder.children.size());
+
+                // Fork one task per sub folder so siblings are read in parallel
+                java.util.List<ScanTask> subtasks = new ArrayList<>();
+                for (Entry child : folder.children) {
+                    if (child.directory && descend.test(child.path)) {
+                        subtasks.add(new ScanTask(scan, child, filter, descend));
+                    }
+                }
+                invokeAll(subtasks);
+            }
+        }
+    }
+
+    // Compiled .gitignore rules for the explorer and scans. Each folder gets a rule set made of
+    // its parent's rules plus its own .gitignore (read once and cached). Project-wide excludes
+    // come from the built-in defaults, .git/info/exclude, a root .ideignore file and the
+    // nodeide.exclude system property (comma separated globs)
+    static class IgnoreRules implements DirectoryScanner.Filter {
+        static final String GITIGNORE = ".gitignore";
+        static final String PROJECT_IGNORE = ".ideignore";
+
+        private final Path root;
+        private final RuleSet projectRules;
+        private final Map<Path, RuleSet> folderRules = new ConcurrentHashMap<>();
+
+        IgnoreRules(Path root, java.util.List<String> defaultExcludes) {
+            this.root = root;
+
+            java.util.List<Rule> rules = new ArrayList<>();
+            for (String glob : defaultExcludes) {
+                addRule(rules, glob, root);
+            }
+            readRules(rules, root.resolve(".git").resolve("info").resolve("exclude"), root);
+            readRules(rules, root.resolve(PROJECT_IGNORE), root);
+            String extra = System.getProperty("nodeide.exclude");
+            if (extra != null) {
+                for (String glob : extra.split(",")) {
+                    addRule(rules, glob.trim(), root);
+                }
+            }
+            this.projectRules = new RuleSet(rules);
+        }
+
+        boolean isIgnored(Path path, boolean directory) {
+            Path parent = path.getParent();
+            RuleSet rules = parent == null ? projectRules : rulesFor(parent);
+            return rules.isIgnored(path, path.getFileName().toString(), directory);
+        }
+
+        @Override
+        public boolean accept(Path path, boolean directory) {
+            return !isIgnored(path, directory);
+        }
+
+        // Lets scans skip reading attributes for names that are ignored as file and as folder
+        @Override
+        public boolean rejectsName(Path path) {
+            return isIgnored(path, false) && isIgnored(path, true);
+        }
+
+        // A .gitignore in this folder changed - drop the cached rules here and below
+        void invalidate(Path folder) {
+            folderRules.keySet().removeIf(path -> path.startsWith(folder));
+        }
+
+        private RuleSet rulesFor(Path folder) {
+            if (!folder.startsWith(root)) return projectRules;
+
+            RuleSet rules = folderRules.get(folder);
+            if (rules == null) {
+                RuleSet parentRules = folder.equals(root) ? projectRules : rulesFor(folder.getParent());
+                java.util.List<Rule> own = new ArrayList<>();
+                readRules(own, folder.resolve(GITIGNORE), folder);
+                rules = own.isEmpty() ? parentRules : parentRules.extend(own);
+                folderRules.putIfAbsent(folder, rules);
+            }
+            return rules;
+        }
+
+        private static void readRules(java.util.List<Rule> rules, Path file, Path base) {
+            if (!Files.isRegularFile(file)) return;
+            try {
+                for (String line : Files.readAllLines(file)) {
+                    addRule(rules, line, base);
+                }
+            } catch (IOException e) {
+                // Unreadable ignore file - behave as if it wasn't there
+            }
+        }
+
+        // Parse one gitignore line: comments, "!" negation, trailing "/" for folders only,
+        // and a "/" anywhere but the end anchors the pattern to the file's folder
+        private static void addRule(java.util.List<Rule> rules, String line, Path base) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) end--;
+            String text = line.substring(0, end);
+            if (text.isEmpty() || text.startsWith("#")) return;
+
+            boolean negated = false;
+            if (text.startsWith("!")) {
+                negated = true;
+                text = text.substring(1);
+            } else if (text.startsWith("\\!") || text.startsWith("\\#")) {
+                text = text.substring(1);
+            }
+
+            boolean directoryOnly = text.endsWith("/");
+            if (directoryOnly) text = text.substring(0, text.length() - 1);
+
+            boolean anchored = text.indexOf('/') >= 0;
+            if (text.startsWith("/")) text = text.substring(1);
+            if (text.isEmpty()) return;
+
+            rules.add(new Rule(base, text, negated, directoryOnly, anchored));
+        }
+
+        // Rules in file order (parents first); the last matching rule decides
+        private static class RuleSet {
+            private final java.util.List<Rule> rules;
+            private final boolean hasNegation;
+            // Without negations any match wins, so plain names can be looked up in a set
+            private final Set<String> names = new HashSet<>();
+            private final Set<String> folderNames = new HashSet<>();
+            private final java.util.List<Rule> patterns = new ArrayList<>();
+
+            RuleSet(java.util.List<Rule> rules) {
+                this.rules = rules;
+                boolean negation = false;
+                for (Rule rule : rules) {
+                    negation |= rule.negated;
+                    if (rule.literal != null) {
+                        (rule.directoryOnly ? folderNames : names).add(rule.literal);
+                    } else {
+                        patterns.add(rule);
+                    }
+                }
+                this.hasNegation = negation;
+            }
+
+            RuleSet extend(java.util.List<Rule> more) {
+                java.util.List<Rule> combined = new ArrayList<>(rules);
+                combined.addAll(more);
+                return new RuleSet(combined);
+            }
+
+            boolean isIgnored(Path path, String name, boolean directory) {
+                if (!hasNegation) {
+                    if (names.contains(name) || (directory && folderNames.contains(name))) return true;
+                    for (Rule rule : patterns) {
+                        if (rule.matches(path, name, directory)) return true;
+                    }
+                    return false;
+                }
+
+                for (int i = rules.size() - 1; i >= 0; i--) {
+                    Rule rule = rules.get(i);
+                    if (rule.matches(path, name, directory)) return !rule.negated;
+                }
+                return false;
+            }
+        }
+
+        private static class Rule {
+            final Path base;
+            final boolean negated;
+            final boolean directoryOnly;
+            final boolean anchored;
+            final String literal; // Plain file name without wildcards, matched with equals
+            final java.util.regex.Pattern pattern;
+
+            Rule(Path base, String glob, boolean negated, boolean directoryOnly, boolean anchored) {
+                this.base = base;
+                this.negated = negated;
+                this.directoryOnly = directoryOnly;
+                this.anchored = anchored;
+
+                boolean wildcard = glob.indexOf('*') >= 0 || glob.indexOf('?') >= 0
+                    || glob.indexOf('[') >= 0 || glob.indexOf('\\') >= 0;
+                this.literal = !anchored && !wildcard ? glob : null;
+                this.pattern = literal == null ? java.util.regex.Pattern.compile(toRegex(glob)) : null;
+            }
+
+            boolean matches(Path path, String name, boolean directory) {
+                if (directoryOnly && !directory) return false;
+                if (literal != null) return literal.equals(name);
+                if (!anchored) return pattern.matcher(name).matches();
+                if (!path.startsWith(base)) return false;
+
+                String relative = base.relativize(path).toString().replace(File.separatorChar, '/');
+                return pattern.matcher(relative).matches();
+            }
+
+            // Translate a gitignore glob: "*" and "?" stay inside one path segment,
+            // "**/" matches any number of folders and a trailing "/**" everything inside
+            private static String toRegex(String glob) {
+                StringBuilder regex = new StringBuilder();
+                int i = 0;
+                while (i < glob.length()) {
+                    char c = glob.charAt(i);
+                    if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        boolean segmentStart = i == 0 || glob.charAt(i - 1) == '/';
+                        if (segmentStart && i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                            regex.append("(?:.*/)?");
+                            i += 3;
+                        } else {
+                            regex.append(".*");
+                            i += 2;
+                        }
+                    } else if (c == '*') {
+                        regex.append("[^/]*");
+                        i++;
+                    } else if (c == '?') {
+                        regex.append("[^/]");
+                        i++;
+                    } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                        int close = glob.indexOf(']', i + 2);
+                        String set = glob.substring(i + 1, close);
+                        if (set.startsWith("!")) set = "^" + set.substring(1);
+                        regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[").replace("&", "\\&")).append(']');
+                        i = close + 1;
+                    } else if (c == '\\' && i + 1 < glob.length()) {
+                        regex.append(java.util.regex.Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                        i += 2;
+                    } else {
+                        regex.append(java.util.regex.Pattern.quote(String.valueOf(c)));
+                        i++;
+                    }
+                }
+                return regex.toString();
+            }
+        }
+    }
+
+    // Compact binary copy of the loaded part of the explorer tree, one file per project under
+    // ~/.nodejs-ide/snapshots. Entries store only their own name (paths are rebuilt from the
+    // parents), a flags byte and the modification time
+    static class TreeSnapshot {
+        private static final int MAGIC = 0x4E4A5453; // "NJTS"
+        private static final int VERSION = 1;
+        private static final int DIRECTORY = 1;
+        private static final int LOADED = 2;
+        private static final int EXPANDED = 4;
+
+        static class Node {
+            final String name;
+            final boolean directory;
+            final long modified;
+            boolean loaded; // Children were read - only then are they stored
+            boolean expanded;
+            final java.util.List<Node> children = new ArrayList<>();
+
+            Node(String name, boolean directory, long modified) {
+                this.name = name;
+                this.directory = directory;
+                this.modified = modified;
+            }
+        }
+
+        static Path fileFor(Path root) {
+            String key = root.toAbsolutePath().normalize().toString();
+            return Paths.get(System.getProperty("user.home"), ".nodejs-ide", "snapshots",
+                root.getFileName() + "-" + String.format("%08x", key.hashCode()) + ".bin");
+        }
+
+        // Returns the stored tree, or null if there is none or it belongs to another directory
+        static Node load(Path root) {
+            Path file = fileFor(root);
+            if (!Files.isRegularFile(file)) return null;
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+                if (!in.readUTF().equals(root.toAbsolutePath().normalize().toString())) return null;
+                return readNode(in);
+            } catch (IOException e) {
+                return null; // Corrupt or truncated - start from the disk instead
+            }
+        }
+
+        // Written to a temp file and moved into place, so a crash never leaves half a snapshot
+        static void save(Path root, Node tree) throws IOException {
+            Path file = fileFor(root);
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(root.toAbsolutePath().normalize().toString());
+                writeNode(out, tree);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeNode(DataOutputStream out, Node node) throws IOException {
+            out.writeUTF(node.name);
+            out.writeByte((node.directory ? DIRECTORY : 0) | (node.loaded ? LOADED : 0) | (node.expanded ? EXPANDED : 0));
+            out.writeLong(node.modified);
+            if (node.loaded) {
+                out.writeInt(node.children.size());
+                for (Node child : node.children) {
+                    writeNode(out, child);
+                }
+            }
+        }
+
+        private static Node readNode(DataInputStream in) throws IOException {
+            String name = in.readUTF();
+            int flags = in.readByte();
+            Node node = new Node(name, (flags & DIRECTORY) != 0, in.readLong());
+            node.loaded = (flags & LOADED) != 0;
+            node.expanded = (flags & EXPANDED) != 0;
+            if (node.loaded) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    node.children.add(readNode(in));
+                }
+            }
+            return node;
+        }
+    }
+
+    // Reads process output as raw bytes and passes it on as soon as it arrives instead of waiting
+    // for a newline, so prompts and progress bars show up right away. UTF-8 sequences that are
+    // split between two reads are kept back by the decoder until the rest arrives
+    static class OutputReader {
+        private static final int BUFFER_SIZE = 8192;
+
+        // Blocks until the stream ends
+        static void pump(InputStream in, Consumer<String> sink) throws IOException {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+            int read;
+            while ((read = in.read(bytes.array(), bytes.position(), bytes.remaining())) != -1) {
+                bytes.position(bytes.position() + read);
+                bytes.flip();
+                decode(decoder, bytes, chars, false, sink);
+                bytes.compact(); // Keeps an incomplete sequence for the next read
+            }
+
+            bytes.flip();
+            decode(decoder, bytes, chars, true, sink);
+            decoder.flush(chars);
+            emit(chars, sink);
+        }
+
+        private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput, Consumer<String> sink) {
+            while (decoder.decode(bytes, chars, endOfInput).isOverflow()) {
+                emit(chars, sink);
+            }
+            emit(chars, sink);
+        }
+
+        private static void emit(CharBuffer chars, Consumer<String> sink) {
+            chars.flip();
+            if (chars.hasRemaining()) {
+                sink.accept(chars.toString());
+            }
+            chars.clear();
+        }
+    }
+
+    // Carries process output from reader threads to the terminal. Producers add chunks to a
+    // lock-free queue and the EDT drains it at most once per frame (~60 times a second),
+    // merging everything that arrived into one insert per style run. When the queue is full
+    // producers are held back (which stalls the process on its pipe); if the EDT stays behind
+    // for too long the output is dropped and counted instead
+    static class OutputPipeline {
+        private static final int FRAME_MS = 16;
+        private static final int MAX_CHARS_PER_FRAME = 256 * 1024;
+        private static final long MAX_PENDING_CHARS = Long.getLong("nodeide.output.maxPending", 8L * 1024 * 1024);
+        private static final long PRODUCER_WAIT_MS = 500;
+
+        static class Chunk {
+            final String text;
+            final AttributeSet style;
+
+            Chunk(String text, AttributeSet style) {
+                this.text = text;
+                this.style = style;
+            }
+        }
+
+        // Receives one frame of output on the EDT, adjacent chunks with the same style already merged
+        interface Sink {
+            void write(java.util.List<Chunk> batch);
+        }
+
+        private final ConcurrentLinkedQueue<Chunk> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingChars = new AtomicLong();
+        private final AtomicLong droppedChars = new AtomicLong();
+        private final AtomicLong stalledWrites = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Object space = new Object();
+        private final Sink sink;
+        private final AttributeSet noticeStyle;
+        private final javax.swing.Timer frameTimer;
+        private long reportedDrops;
+
+        OutputPipeline(Sink sink, AttributeSet noticeStyle) {
+            this.sink = sink;
+            this.noticeStyle = noticeStyle;
+            this.frameTimer = new javax.swing.Timer(FRAME_MS, e -> drain());
+            this.frameTimer.setRepeats(false);
+        }
+
+        // Safe from any thread; output appears on the next frame in the order it was added
+        void append(String text, AttributeSet style) {
+            if (text.isEmpty()) return;
+
+            // Never block the EDT - it is the one that makes room
+            if (pendingChars.get() + text.length() > MAX_PENDING_CHARS && !SwingUtilities.isEventDispatchThread()
+                    && !awaitSpace(text.length())) {
+                droppedChars.addAndGet(text.length());
+                schedule();
+                return;
+            }
+
+            queue.add(new Chunk(text, style));
+            pendingChars.addAndGet(text.length());
+            schedule();
+        }
+
+        // Characters thrown away because the terminal could not keep up
+        long getDroppedChars() {
+            return droppedChars.get();
+        }
+
+        // How often a producer had to wait for the terminal
+        long getStalledWrites() {
+            return stalledWrites.get();
+        }
+
+        private boolean awaitSpace(int length) {
+            stalledWrites.incrementAndGet();
+            long deadline = System.currentTimeMillis() + PRODUCER_WAIT_MS;
+            synchronized (space) {
+                while (pendingChars.get() + length > MAX_PENDING_CHARS) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return false;
+                    try {
+                        space.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(frameTimer::restart);
+            }
+        }
+
+        // Runs on the EDT once per frame
+        private void drain() {
+            java.util.List<Chunk> batch = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            AttributeSet runStyle = null;
+            long taken = 0;
+
+            Chunk chunk;
+            while (taken < MAX_CHARS_PER_FRAME && (chunk = queue.poll()) != null) {
+                taken += chunk.text.length();
+                if (chunk.style != runStyle && run.length() > 0) {
+                    batch.add(new Chunk(run.toString(), runStyle));
+                    run.setLength(0);
+                }
+                runStyle = chunk.style;
+                run.append(chunk.text);
+            }
+            if (run.length() > 0) {
+                batch.add(new Chunk(run.toString(), runStyle));
+            }
+
+            long dropped = droppedChars.get();
+            if (dropped > reportedDrops) {
+                batch.add(new Chunk("\n[" + (dropped - reportedDrops) + " characters of output dropped - terminal could not keep up]\n", noticeStyle));
+                reportedDrops = dropped;
+            }
+
+            if (taken > 0) {
+                pendingChars.addAndGet(-taken);
+                synchronized (space) {
+                    space.notifyAll();
+                }
+            }
+            if (!batch.isEmpty()) {
+                sink.write(batch);
+            }
+
+            scheduled.set(false);
+            if (!queue.isEmpty()) schedule();
+        }
+    }
+
+    // One shared AttributeSet per (foreground, background, bold, underline) combination, built on
+    // top of the terminal's normal style. Colors are 0xRRGGBB, or -1 for the base style's color.
+    // Sets are never changed after creation, so they can be handed to any thread
+    static class AnsiStyles {
+        private final AttributeSet base;
+        private final ConcurrentHashMap<Long, AttributeSet> cache = new ConcurrentHashMap<>();
+
+        AnsiStyles(AttributeSet base) {
+            this.base = base;
+        }
+
+        AttributeSet get(int foreground, int background, boolean bold, boolean underline) {
+            if (foreground < 0 && background < 0 && !bold && !underline) return base;
+
+            long key = ((long) (foreground + 1) << 27) | ((long) (background + 1) << 2) | (bold ? 2 : 0) | (underline ? 1 : 0);
+            return cache.computeIfAbsent(key, k -> {
+                SimpleAttributeSet style = new SimpleAttributeSet(base);
+                if (foreground >= 0) StyleConstants.setForeground(style, new Color(foreground));
+                if (background >= 0) StyleConstants.setBackground(style, new Color(background));
+                if (bold) StyleConstants.setBold(style, true);
+                if (underline) StyleConstants.setUnderline(style, true);
+                return style;
+            });
+        }
+    }
+
+    // Turns a stream of text with ANSI escape codes into plain text runs with styles. Colors,
+    // bold and underline (SGR) are applied; every other escape sequence (cursor movement, line
+    // erase, window titles) is dropped. State carries over between chunks, so a sequence or a
+    // color that is split across two reads still comes out right. One parser per output stream
+    static class AnsiParser {
+        private static final int TEXT = 0, ESCAPE = 1, CSI = 2, OSC = 3, OSC_ESCAPE = 4;
+        // Standard and bright colors (VS Code dark terminal palette)
+        private static final int[] PALETTE = {
+            0x000000, 0xCD3131, 0x0DBC79, 0xE5E510, 0x2472C8, 0xBC3FBC, 0x11A8CD, 0xE5E5E5,
+            0x666666, 0xF14C4C, 0x23D18B, 0xF5F543, 0x3B8EEA, 0xD670D6, 0x29B8DB, 0xFFFFFF
+        };
+
+        private final AnsiStyles styles;
+        private int state = TEXT;
+        private final StringBuilder params = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+        private int foreground = -1;
+        private int background = -1;
+        private boolean bold;
+        private boolean underline;
+
+        AnsiParser(AnsiStyles styles) {
+            this.styles = styles;
+        }
+
+        void feed(String chunk, BiConsumer<String, AttributeSet> sink) {
+            for (int i = 0; i < chunk.length(); i++) {
+                char c = chunk.charAt(i);
+                switch (state) {
+                    case TEXT:
+                        if (c == '\u001B') {
+                            flush(sink);
+                            state = ESCAPE;
+                        } else {
+                            text.append(c);
+                        }
+                        break;
+                    case ESCAPE:
+                        if (c == '[') {
+                            params.setLength(0);
+                            state = CSI;
+                        } else if (c == ']') {
+                            state = OSC;
+                        } else {
+                            state = TEXT; // Two-character sequence - ignored
+                        }
+                        break;
+                    case CSI:
+                        if (c >= 0x40 && c <= 0x7E) {
+                            if (c == 'm') applySgr();
+                            state = TEXT;
+                        } else {
+                            params.append(c);
+                        }
+                        break;
+                    case OSC:
+                        // Ends with BEL or ESC \
+                        if (c == '\u0007') state = TEXT;
+                        else if (c == '\u001B') state = OSC_ESCAPE;
+                        break;
+                    case OSC_ESCAPE:
+                        state = c == '\\' ? TEXT : OSC;
+                        break;
+                }
+            }
+            flush(sink);
+        }
+
+        private void flush(BiConsumer<String, AttributeSet> sink) {
+            if (text.length() == 0) return;
+            sink.accept(text.toString(), styles.get(foreground, background, bold, underline));
+            text.setLength(0);
+        }
+
+        private void applySgr() {
+            String[] codes = params.length() == 0 ? new String[] {"0"} : params.toString().split("[;:]", -1);
+            for (int i = 0; i < codes.length; i++) {
+                int code = parse(codes[i]);
+                if (code == 0) {
+                    foreground = background = -1;
+                    bold = underline = false;
+                } else if (code == 1) {
+                    bold = true;
+                } else if (code == 22) {
+                    bold = false;
+                } else if (code == 4) {
+                    underline = true;
+                } else if (code == 24) {
+                    underline = false;
+                } else if (code >= 30 && code <= 37) {
+                    foreground = PALETTE[code - 30];
+                } else if (code >= 90 && code <= 97) {
+                    foreground = PALETTE[code - 90 + 8];
+                } else if (code == 39) {
+                    foreground = -1;
+                } else if (code >= 40 && code <= 47) {
+                    background = PALETTE[code - 40];
+                } else if (code >= 100 && code <= 107) {
+                    background = PALETTE[code - 100 + 8];
+                } else if (code == 49) {
+                    background = -1;
+                } else if ((code == 38 || code == 48) && i + 1 < codes.length) {
+                    // Extended color: 5;n (256 colors) or 2;r;g;b (true color)
+                    int color = -1;
+                    int mode = parse(codes[i + 1]);
+                    if (mode == 5 && i + 2 < codes.length) {
+                        color = color256(parse(codes[i + 2]));
+                        i += 2;
+                    } else if (mode == 2 && i + 4 < codes.length) {
+                        color = (clamp(parse(codes[i + 2])) << 16) | (clamp(parse(codes[i + 3])) << 8) | clamp(parse(codes[i + 4]));
+                        i += 4;
+                    } else {
+                        i += 1;
+                    }
+                    if (code == 38) foreground = color;
+                    else background = color;
+                }
+            }
+        }
+
+        private static int color256(int index) {
+            if (index < 0 || index > 255) return -1;
+            if (index < 16) return PALETTE[index];
+            if (index >= 232) {
+                int gray = 8 + (index - 232) * 10;
+                return (gray << 16) | (gray << 8) | gray;
+            }
+            index -= 16;
+            int r = index / 36, g = index / 6 % 6, b = index % 6;
+            return (cube(r) << 16) | (cube(g) << 8) | cube(b);
+        }
+
+        private static int cube(int level) {
+            return level == 0 ? 0 : 55 + level * 40;
+        }
+
+        private static int clamp(int value) {
+            return Math.max(0, Math.min(255, value));
+        }
+
+        private static int parse(String number) {
+            if (number.isEmpty()) return 0;
+            try {
+                return Integer.parseInt(number);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    // Opt-in fast path for "Run Current File". A few node processes are started ahead of time and
+    // every run happens in a fresh worker_threads isolate inside one of them, so a run skips both
+    // the shell and the Node startup. Output comes back over the process's stdout, followed by a
+    // line starting with NUL that marks the end of the run. A process is replaced after
+    // nodeide.node.maxRuns runs (default 20) or when it dies - with a growing delay if it died
+    // before finishing a run, and not at all after MAX_FAILURES such deaths in a row (bad node
+    // flags, a broken install); runs then start a plain node process each
+    static class NodeWorkerPool {
+        static final int SIZE = Integer.getInteger("nodeide.node.workers", 2);
+        static final int MAX_RUNS = Integer.getInteger("nodeide.node.maxRuns", 20);
+        static final int MAX_FAILURES = 3;
+        private static final String DONE_MARKER = "\u0000NODEIDE-DONE:";
+        // Reads one JSON job per line, runs the file in a Worker and reports its exit code
+        // once both of the worker's output streams have drained
+        private static final String BOOTSTRAP = String.join("\n",
+            "const { Worker } = require('worker_threads');",
+            "const rl = require('readline').createInterface({ input: process.stdin });",
+            "rl.on('line', line => {",
+            "  const job = JSON.parse(line);",
+            "  let open = 3, code = 0, last = 10;",
+            // The marker has to start a line - end the program's last line first if it didn't
+            "  const done = () => { if (--open === 0) process.stdout.write((last === 10 ? '' : '\\n') + '\\0NODEIDE-DONE:' + job.id + ':' + code + '\\n'); };",
+            "  const worker = new Worker(job.file, { stdout: true, stderr: true });",
+            "  const track = data => { if (data.length) last = data[data.length - 1]; };",
+            "  worker.stdout.on('data', track);",
+            "  worker.stderr.on('data', track);",
+            "  worker.stdout.on('end', done);",
+            "  worker.stderr.on('end', done);",
+            "  worker.stdout.pipe(process.stdout, { end: false });",
+            "  worker.stderr.pipe(process.stdout, { end: false });",
+            "  worker.on('error', e => { process.stdout.write(String(e && e.stack || e) + '\\n'); code = 1; });",
+            "  worker.on('exit', c => { if (c) code = c; done(); });",
+            "});");
+
+        private final File directory;
+        private final BlockingQueue<NodeProcess> idle = new LinkedBlockingQueue<>();
+        private final Set<NodeProcess> all = ConcurrentHashMap.newKeySet();
+        private final AtomicLong nextJob = new AtomicLong();
+        private final AtomicInteger failures = new AtomicInteger(); // Processes in a row that died before finishing a run
+        private volatile boolean closed;
+
+        NodeWorkerPool(File directory) {
+            this.directory = directory;
+            for (int i = 0; i < SIZE; i++) {
+                Workers.io().execute(this::startIdle);
+            }
+        }
+
+        File getDirectory() {
+            return directory;
+        }
+
+        // Run a file in a warm process. Output goes to the sink as it arrives and the future
+        // completes with the exit code. onStart gets the node process so the caller can stop it.
+        // Blocks only if no warm process is ready and a new one has to be started
+        CompletableFuture<Integer> run(Path file, Consumer<String> output, Consumer<Process> onStart) throws IOException {
+            if (failures.get() >= MAX_FAILURES) return runCold(file, output, onStart);
+
+            Job job = new Job(nextJob.incrementAndGet(), output);
+            NodeProcess node;
+            do {
+                node = idle.poll();
+                if (node == null) node = new NodeProcess();
+            } while (!node.assign(job)); // It died while idle - take the next one
+
+            onStart.accept(node.process);
+            try {
+                node.stdin.write("{\"id\":" + job.id + ",\"file\":\"" + jsonEscape(file.toAbsolutePath().toString()) + "\"}\n");
+                node.stdin.flush();
+            } catch (IOException e) {
+                node.process.destroyForcibly(); // Its reader completes the job and replaces it
+            }
+            return job.result;
+        }
+
+        // Kill all node processes, busy or not
+        void shutdown() {
+            closed = true;
+            for (NodeProcess node : all) {
+                node.process.descendants().forEach(ProcessHandle::destroyForcibly);
+                node.process.destroyForcibly();
+            }
+        }
+
+        private void startIdle() {
+            if (closed) return;
+            try {
+                idle.offer(new NodeProcess());
+            } catch (IOException e) {
+                // node is not available - runs will report the error when they start one
+            }
+        }
+
+        // Replaces a process that died: right away normally, after 0.5s, 1s, ... while they keep
+        // dying at startup, and no more once MAX_FAILURES did in a row
+        private void respawn() {
+            int failed = failures.get();
+            if (closed || failed >= MAX_FAILURES) return;
+            if (failed == 0) {
+                startIdle();
+            } else {
+                Workers.timer().schedule(() -> Workers.io().execute(this::startIdle), 250L << failed, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // A plain node process for one run, for when the warm ones can't be started
+        private CompletableFuture<Integer> runCold(Path file, Consumer<String> output, Consumer<Process> onStart) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(Launcher.program("node"), file.toAbsolutePath().toString());
+            pb.directory(directory);
+            pb.redirectErrorStream(true);
+            pb.environment().putIfAbsent("FORCE_COLOR", "1");
+            Process process = pb.start();
+            onStart.accept(process);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    OutputReader.pump(process.getInputStream(), output);
+                    return process.waitFor();
+                } catch (IOException e) {
+                    return -1;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }, Workers.io());
+        }
+
+        private static String jsonEscape(String text) {
+            return text.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+
+        private static class Job {
+            final long id;
+            final Consumer<String> output;
+            final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+            Job(long id, Consumer<String> output) {
+                this.id = id;
+                this.output = output;
+            }
+        }
+
+        private class NodeProcess {
+            final Process process;
+            final BufferedWriter stdin;
+            final StringBuilder marker = new StringBuilder(); // A done line, possibly split across reads
+            boolean atLineStart = true; // Only a NUL that starts a line can begin a marker
+            volatile Job job;
+            int runs;
+            private boolean dead;
+
+            NodeProcess() throws IOException {
+                ProcessBuilder pb = new ProcessBuilder(Launcher.program("node"), "-e", BOOTSTRAP);
+                pb.directory(directory);
+                pb.redirectErrorStream(true);
+                pb.environment().putIfAbsent("FORCE_COLOR", "1");
+                process = pb.start();
+                stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+                all.add(this);
+                Workers.io().execute(this::read);
+            }
+
+            synchronized boolean assign(Job job) {
+                if (dead) return false;
+                this.job = job;
+                return true;
+            }
+
+            private void read() {
+                try {
+                    OutputReader.pump(process.getInputStream(), this::received);
+                } catch (IOException e) {
+                    // Pipe broke - same as the process dying
+                }
+
+                // The process is gone (crashed, stopped, or retired) - finish its run and replace it
+                all.remove(this);
+                idle.remove(this);
+                Job current;
+                synchronized (this) {
+                    dead = true;
+                    current = job;
+                    job = null;
+                }
+                int exitCode = -1;
+                try {
+                    exitCode = process.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (current != null) current.result.complete(exitCode);
+
+                // Killed by a signal means stopped (or retired), otherwise it failed without a single run
+                if (runs == 0 && exitCode >= 0 && exitCode < 128 && !closed) failures.incrementAndGet();
+                if (idle.size() < SIZE) respawn();
+            }
+
+            // Split the stream into run output and done markers
+            private void received(String text) {
+                int start = 0;
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (marker.length() > 0) {
+                        if (c == '\n') {
+                            finished(marker.toString());
+                            marker.setLength(0);
+                        } else {
+                            marker.append(c);
+                        }
+                        start = i + 1;
+                    } else if (c == '\u0000' && atLineStart) {
+                        emit(text.substring(start, i));
+                        marker.append(c);
+                        start = i + 1;
+                    } else {
+                        atLineStart = c == '\n';
+                    }
+                }
+                if (marker.length() == 0 && start < text.length()) {
+                    emit(text.substring(start));
+                }
+            }
+
+            private void finished(String line) {
+                atLineStart = true;
+                Job current = job;
+                if (!line.startsWith(DONE_MARKER)) {
+                    emit(line + "\n"); // Not ours - just a NUL in the program's output
+                    return;
+                }
+
+                String[] parts = line.substring(DONE_MARKER.length()).split(":");
+                if (current == null || !parts[0].trim().equals(Long.toString(current.id))) return; // Late marker of an earlier job
+                job = null;
+                failures.set(0);
+                runs++;
+                if (runs >= MAX_RUNS || closed || idle.size() >= SIZE) {
+                    retire();
+                } else {
+                    idle.offer(this);
+                }
+                current.result.complete(Integer.parseInt(parts[1].trim()));
+            }
+
+            private void emit(String text) {
+                Job current = job;
+                if (current != null && !text.isEmpty()) current.output.accept(text);
+            }
+
+            // Closing stdin ends the read loop in node, the process exits and read() replaces it
+            private void retire() {
+                try {
+                    stdin.close();
+                } catch (IOException e) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    // Timing and output figures of every finished command, one append-only binary file per
+    // project under ~/.nodejs-ide/history. Only the last nodeide.history.runs runs (default 50)
+    // of each command are kept; the file is rewritten without the older ones when it is loaded
+    static class CommandHistory {
+        static final int RUNS_PER_COMMAND = Integer.getInteger("nodeide.history.runs", 50);
+        private static final int MAGIC = 0x4E4A4348; // "NJCH"
+        private static final int VERSION = 1;
+
+        static class RunRecord {
+            final String command;
+            final long started; // Epoch millis
+            final long wallMillis;
+            final long firstOutputMillis; // -1 if there was no output
+            final long bytes;
+            final long lines;
+            final int exitCode;
+            final long peakRss; // 0 if never sampled
+
+            RunRecord(String command, long started, long wallMillis, long firstOutputMillis, long bytes, long lines, int exitCode, long peakRss) {
+                this.command = command;
+                this.started = started;
+                this.wallMillis = wallMillis;
+                this.firstOutputMillis = firstOutputMillis;
+                this.bytes = bytes;
+                this.lines = lines;
+                this.exitCode = exitCode;
+                this.peakRss = peakRss;
+            }
+        }
+
+        private final Path root;
+        private final Path file;
+        private final Map<String, ArrayDeque<RunRecord>> runs = new LinkedHashMap<>();
+        private final java.util.List<RunRecord> unwritten = new ArrayList<>();
+        private final java.util.List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+        CommandHistory(Path root) {
+            this.root = root;
+            String key = root.toAbsolutePath().normalize().toString();
+            file = Paths.get(System.getProperty("user.home"), ".nodejs-ide", "history",
+                root.getFileName() + "-" + String.format("%08x", key.hashCode()) + ".bin");
+            load();
+        }
+
+        Path getRoot() {
+            return root;
+        }
+
+        // Runs on the thread that made the change
+        void addListener(Runnable listener) {
+            listeners.add(listener);
+        }
+
+        void removeListener(Runnable listener) {
+            listeners.remove(listener);
+        }
+
+        void add(RunRecord record) {
+            synchronized (this) {
+                keep(record);
+                unwritten.add(record);
+            }
+            Workers.io().execute(this::flush);
+            fireChange();
+        }
+
+        // Last runs per command, oldest first, commands in order of first use
+        synchronized Map<String, java.util.List<RunRecord>> snapshot() {
+            Map<String, java.util.List<RunRecord>> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, ArrayDeque<RunRecord>> entry : runs.entrySet()) {
+                copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            return copy;
+        }
+
+        // Nearest-rank percentile (0-100) of the values, -1 if there are none
+        static long percentile(long[] values, double percent) {
+            if (values.length == 0) return -1;
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percent / 100 * sorted.length);
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+        }
+
+        // Appends whatever is waiting - one task may write the records of several, in order
+        private synchronized void flush() {
+            if (unwritten.isEmpty()) return;
+            try {
+                boolean created = !Files.exists(file);
+                Files.createDirectories(file.getParent());
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                    if (created) writeHeader(out);
+                    for (RunRecord record : unwritten) write(out, record);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                unwritten.clear();
+            }
+        }
+
+        private void keep(RunRecord record) {
+            ArrayDeque<RunRecord> list = runs.computeIfAbsent(record.command, k -> new ArrayDeque<>());
+            list.addLast(record);
+            while (list.size() > RUNS_PER_COMMAND) list.removeFirst();
+        }
+
+        // Small file (at most RUNS_PER_COMMAND records per command), read once at startup
+        private synchronized void load() {
+            if (!Files.isRegularFile(file)) return;
+
+            int stored = 0;
+            boolean damaged = false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+                while (in.available() > 0) {
+                    keep(read(in));
+                    stored++;
+                }
+            } catch (EOFException e) {
+                damaged = true; // Last record was cut short by a crash - everything before it is fine
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            // Drop the runs that fell out of the window, and any cut-off record at the end
+            int kept = 0;
+            for (ArrayDeque<RunRecord> list : runs.values()) kept += list.size();
+            if (stored > kept || damaged) {
+                try {
+                    rewrite();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void rewrite() throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                writeHeader(out);
+                for (ArrayDeque<RunRecord> list : runs.values()) {
+                    for (RunRecord record : list) write(out, record);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeHeader(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        private static void write(DataOutputStream out, RunRecord record) throws IOException {
+            out.writeUTF(record.command);
+            out.writeLong(record.started);
+            out.writeInt((int) Math.min(Integer.MAX_VALUE, record.wallMillis));
+            out.writeInt((int) Math.min(Integer.MAX_VALUE, record.firstOutputMillis));
+            out.writeLong(record.bytes);
+            out.writeLong(record.lines);
+            out.writeInt(record.exitCode);
+            out.writeLong(record.peakRss);
+        }
+
+        private static RunRecord read(DataInputStream in) throws IOException {
+            return new RunRecord(in.readUTF(), in.readLong(), in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readInt(), in.readLong());
+        }
+
+        private void fireChange() {
+            for (Runnable listener : listeners) listener.run();
+        }
+    }
+
+    // Table of run statistics per command over the kept history, so a build or test run that
+    // got slower stands out. Refreshes itself whenever a run is recorded
+    static class MetricsPanel extends JPanel {
+        private static final String[] COLUMNS = {
+            "Command", "Runs", "Failed", "Wall p50", "Wall p95", "First output p50", "Output p50", "Peak RSS", "Last run"
+        };
+
+        private final CommandHistory history;
+        private final Runnable listener = () -> SwingUtilities.invokeLater(this::refresh);
+        private java.util.List<Object[]> rows = new ArrayList<>();
+        private final javax.swing.table.AbstractTableModel model = new javax.swing.table.AbstractTableModel() {
+            public int getRowCount() {
+                return rows.size();
+            }
+
+            public int getColumnCount() {
+                return COLUMNS.length;
+            }
+
+            public String getColumnName(int column) {
+                return COLUMNS[column];
+            }
+
+            public Object getValueAt(int row, int column) {
+                return rows.get(row)[column];
+            }
+        };
+
+        MetricsPanel(CommandHistory history) {
+            super(new BorderLayout());
+            this.history = history;
+            JTable table = new JTable(model);
+            table.getColumnModel().getColumn(0).setPreferredWidth(220);
+            add(new JScrollPane(table), BorderLayout.CENTER);
+            add(new JLabel(" Percentiles over the last " + CommandHistory.RUNS_PER_COMMAND + " runs of each command"), BorderLayout.SOUTH);
+        }
+
+        // Listen only while on screen
+        @Override
+        public void addNotify() {
+            super.addNotify();
+            history.addListener(listener);
+            refresh();
+        }
+
+        @Override
+        public void removeNotify() {
+            history.removeListener(listener);
+            super.removeNotify();
+        }
+
+        void refresh() {
+            java.util.List<Object[]> updated = new ArrayList<>();
+            for (Map.Entry<String, java.util.List<CommandHistory.RunRecord>> entry : history.snapshot().entrySet()) {
+                java.util.List<CommandHistory.RunRecord> list = entry.getValue();
+                long[] wall = new long[list.size()];
+                long[] bytes = new long[list.size()];
+                long[] firstOutput = list.stream().filter(r -> r.firstOutputMillis >= 0).mapToLong(r -> r.firstOutputMillis).toArray();
+                int failed = 0;
+                long peakRss = 0;
+                for (int i = 0; i < list.size(); i++) {
+                    CommandHistory.RunRecord record = list.get(i);
+                    wall[i] = record.wallMillis;
+                    bytes[i] = record.bytes;
+                    if (record.exitCode != 0) failed++;
+                    peakRss = Math.max(peakRss, record.peakRss);
+                }
+                CommandHistory.RunRecord last = list.get(list.size() - 1);
+                updated.add(new Object[] {
+                    entry.getKey(), list.size(), failed,
+                    millis(CommandHistory.percentile(wall, 50)), millis(CommandHistory.percentile(wall, 95)),
+                    millis(CommandHistory.percentile(firstOutput, 50)), size(CommandHistory.percentile(bytes, 50)),
+                    peakRss > 0 ? size(peakRss) : "-",
+                    millis(last.wallMillis) + (last.exitCode == 0 ? "" : " (exit " + last.exitCode + ")")
+                });
+            }
+            rows = updated;
+            model.fireTableDataChanged();
+        }
+
+        static String millis(long value) {
+            if (value < 0) return "-";
+            return value < 1000 ? value + " ms" : String.format("%.2f s", value / 1000.0);
+        }
+
+        private static String size(long bytes) {
+            if (bytes < 1024) return bytes + " B";
+            if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+    }
+
+    // Resource usage of one session's process tree: the recent samples behind the sparklines and
+    // the peaks, which stay after the process exits. Written by the monitor, read by the panel
+    static class ResourceStats {
+        static final int HISTORY = 60;
+        static final int CPU = 0, RSS = 1, THREADS = 2, FDS = 3;
+
+        private final double[][] samples = new double[4][HISTORY];
+        private final double[] peaks = new double[4];
+        private int count;
+        private int next;
+        private int processes;
+
+        // Values below zero mean "not available on this platform"
+        synchronized void add(double cpuPercent, double rssBytes, double threads, double fds, int processes) {
+            double[] values = {cpuPercent, rssBytes, threads, fds};
+            for (int i = 0; i < values.length; i++) {
+                samples[i][next] = values[i];
+                peaks[i] = Math.max(peaks[i], values[i]);
+            }
+            next = (next + 1) % HISTORY;
+            count = Math.min(HISTORY, count + 1);
+            this.processes = processes;
+        }
+
+        synchronized void reset() {
+            Arrays.fill(peaks, 0);
+            count = 0;
+            next = 0;
+            processes = 0;
+        }
+
+        // Oldest first
+        synchronized double[] history(int metric) {
+            double[] values = new double[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = samples[metric][(next - count + i + HISTORY) % HISTORY];
+            }
+            return values;
+        }
+
+        synchronized double last(int metric) {
+            return count == 0 ? 0 : samples[metric][(next - 1 + HISTORY) % HISTORY];
+        }
+
+        synchronized double peak(int metric) {
+            return peaks[metric];
+        }
+
+        synchronized int getProcesses() {
+            return processes;
+        }
+
+        synchronized boolean isEmpty() {
+            return count == 0;
+        }
+    }
+
+    // Samples every running session's process tree (the process plus all descendants) every
+    // nodeide.monitor.intervalMs (default 1000). On Linux CPU time, RSS, threads and open files
+    // come from /proc/<pid>/stat, status and fd; elsewhere only CPU time is known (ProcessHandle)
+    static class ResourceMonitor {
+        static final long INTERVAL_MS = Long.getLong("nodeide.monitor.intervalMs", 1000);
+        private static final Path PROC = Paths.get("/proc");
+        private static final boolean HAS_PROC = Files.isDirectory(PROC.resolve("self"));
+        private static final long NANOS_PER_TICK = 10_000_000; // USER_HZ is 100 on mainstream Linux
+
+        private final Supplier<? extends Collection<ProcessSession>> sessions;
+        private final Runnable onSample;
+        private Map<Long, Long> lastCpu = new HashMap<>(); // pid -> CPU nanos at the last sample
+        private long lastSample;
+
+        // onSample runs on the sampling thread after every round
+        ResourceMonitor(Supplier<? extends Collection<ProcessSession>> sessions, Runnable onSample) {
+            this.sessions = sessions;
+            this.onSample = onSample;
+            Workers.timer().scheduleWithFixedDelay(this::sample, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            long now = System.nanoTime();
+            long elapsed = lastSample == 0 ? 0 : now - lastSample;
+            lastSample = now;
+            Map<Long, Long> cpu = new HashMap<>();
+
+            for (ProcessSession session : sessions.get()) {
+                Process process = session.getProcess();
+                if (!session.isBusy() || process == null || !process.isAlive()) continue;
+
+                java.util.List<ProcessHandle> tree = new ArrayList<>();
+                tree.add(process.toHandle());
+                process.descendants().forEach(tree::add);
+
+                long cpuNanos = 0;
+                double rss = 0, threads = 0, fds = 0;
+                for (ProcessHandle handle : tree) {
+                    long[] usage = read(handle);
+                    if (usage == null) continue; // Exited while we were looking
+
+                    cpu.put(handle.pid(), usage[0]);
+                    Long before = lastCpu.get(handle.pid());
+                    if (before != null) cpuNanos += Math.max(0, usage[0] - before);
+                    rss += usage[1];
+                    threads += usage[2];
+                    fds += usage[3];
+                }
+
+                double cpuPercent = elapsed > 0 ? cpuNanos * 100.0 / elapsed : 0;
+                if (!HAS_PROC) rss = threads = fds = -1;
+                session.getStats().add(cpuPercent, rss, threads, fds, tree.size());
+            }
+
+            lastCpu = cpu;
+            onSample.run();
+        }
+
+        // {cpu nanos, rss bytes, threads, open fds}, or null if the process is gone
+        private static long[] read(ProcessHandle handle) {
+            if (!HAS_PROC) {
+                Optional<java.time.Duration> cpu = handle.info().totalCpuDuration();
+                return handle.isAlive() ? new long[] {cpu.map(java.time.Duration::toNanos).orElse(0L), 0, 0, 0} : null;
+            }
+
+            Path dir = PROC.resolve(Long.toString(handle.pid()));
+            try {
+                // Fields after "(comm)", which may itself contain spaces: state is [0], utime [11],
+                // stime [12], num_threads [17]
+                String stat = new String(Files.readAllBytes(dir.resolve("stat")), StandardCharsets.US_ASCII);
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                long cpu = (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * NANOS_PER_TICK;
+                long threads = Long.parseLong(fields[17]);
+
+                long rss = 0;
+                for (String line : Files.readAllLines(dir.resolve("status"), StandardCharsets.US_ASCII)) {
+                    if (line.startsWith("VmRSS:")) {
+                        rss = Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                        break;
+                    }
+                }
+
+                long fds = 0;
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir.resolve("fd"))) {
+                    for (Path ignored : entries) fds++;
+                } catch (IOException e) {
+                    // Not allowed to look - leave it at 0
+                }
+                return new long[] {cpu, rss, threads, fds};
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    // Sparklines next to the terminal for the selected session: CPU, memory, threads and open
+    // files, each with its current value and the peak
+    static class ResourcePanel extends JComponent {
+        private static final String[] LABELS = {"CPU", "Memory", "Threads", "Open files"};
+        private static final Color[] COLORS = {
+            new Color(100, 200, 255), new Color(100, 255, 100), new Color(255, 200, 100), new Color(200, 150, 255)
+        };
+
+        private ResourceStats stats;
+        private boolean running;
+
+        ResourcePanel() {
+            setPreferredSize(new Dimension(200, 0));
+            setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 11));
+            setOpaque(true);
+            setBackground(new Color(25, 25, 25));
+        }
+
+        void show(ResourceStats stats, boolean running) {
+            this.stats = stats;
+            this.running = running;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setFont(getFont());
+            FontMetrics metrics = g.getFontMetrics();
+
+            if (stats == null || stats.isEmpty()) {
+                g.setColor(Color.GRAY);
+                g.drawString("No process data", 8, metrics.getAscent() + 6);
+                return;
+            }
+
+            int header = metrics.getHeight() + 8;
+            g.setColor(Color.GRAY);
+            g.drawString(running ? stats.getProcesses() + " process(es)" : "Exited - peaks kept", 8, metrics.getAscent() + 4);
+
+            int rowHeight = (getHeight() - header) / LABELS.length;
+            for (int metric = 0; metric < LABELS.length; metric++) {
+                int top = header + metric * rowHeight;
+                double last = stats.last(metric);
+                double peak = stats.peak(metric);
+
+                g.setColor(Color.LIGHT_GRAY);
+                g.drawString(last < 0 ? LABELS[metric] + " n/a" : LABELS[metric] + " " + format(metric, last), 8, top + metrics.getAscent());
+                if (last >= 0) {
+                    String peakText = "peak " + format(metric, peak);
+                    g.setColor(Color.GRAY);
+                    g.drawString(peakText, getWidth() - 8 - metrics.stringWidth(peakText), top + metrics.getAscent());
+                    paintSparkline(g, stats.history(metric), peak, COLORS[metric], 8, top + metrics.getHeight() + 2,
+                        getWidth() - 16, rowHeight - metrics.getHeight() - 8);
+                }
+            }
+        }
+
+        private static void paintSparkline(Graphics g, double[] values, double max, Color color, int x, int y, int width, int height) {
+            if (values.length < 2 || height < 4) return;
+
+            int[] xs = new int[values.length];
+            int[] ys = new int[values.length];
+            double scale = max > 0 ? (height - 1) / max : 0;
+            for (int i = 0; i < values.length; i++) {
+                xs[i] = x + (width - 1) * i / (ResourceStats.HISTORY - 1);
+                ys[i] = y + height - 1 - (int) Math.round(values[i] * scale);
+            }
+            g.setColor(new Color(45, 45, 45));
+            g.drawRect(x, y, width - 1, height - 1);
+            g.setColor(color);
+            g.drawPolyline(xs, ys, values.length);
+        }
+
+        private static String format(int metric, double value) {
+            switch (metric) {
+                case ResourceStats.CPU: return String.format("%.0f%%", value);
+                case ResourceStats.RSS:
+                    double megabytes = value / (1024 * 1024);
+                    return String.format(megabytes < 100 ? "%.1f MB" : "%.0f MB", megabytes);
+                default: return String.format("%.0f", value);
+            }
+        }
+    }
+
+    // Starts terminal commands. A command without pipes, redirection, variables or globs is split
+    // into arguments here and exec'd directly - one process instead of a shell plus the command.
+    // Anything else, shell builtins and (on Windows) .cmd/.bat scripts such as npm still go through
+    // sh -c / cmd.exe /c. Programs found on PATH are cached, and so are the versions of the tools
+    static class Launcher {
+        static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
+
+        // Characters that mean something to the shell outside of quotes
+        private static final String SHELL_CHARS = IS_WINDOWS ? "|&<>^%()\n" : "|&;<>()$`*?[]{}\n";
+        private static final Set<String> BUILTINS = new HashSet<>(Arrays.asList(
+            "cd", "export", "unset", "source", ".", "alias", "unalias", "set", "exit", "exec", "eval",
+            "ulimit", "umask", "type", "command", "hash", "read", "wait", "jobs", "fg", "bg", "trap", "shift"));
+
+        private static final Map<String, Path> programs = new ConcurrentHashMap<>();
+        private static final Map<String, String> versions = new ConcurrentHashMap<>();
+
+        // The argument list for ProcessBuilder - the program itself if possible, otherwise a shell
+        static java.util.List<String> command(String line, File directory) {
+            java.util.List<String> args = split(line);
+            if (args != null && !args.isEmpty() && !BUILTINS.contains(args.get(0))) {
+                Path program = which(args.get(0), directory);
+                if (program != null && (!IS_WINDOWS || program.toString().toLowerCase().endsWith(".exe"))) {
+                    args.set(0, program.toString());
+                    return args;
+                }
+            }
+            return IS_WINDOWS ? Arrays.asList("cmd.exe", "/c", line) : Arrays.asList("sh", "-c", line);
+        }
+
+        // Arguments with quotes removed, or null if the line needs a shell
+        static java.util.List<String> split(String line) {
+            java.util.List<String> args = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            boolean inArg = false;
+            char quote = 0;
+
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quote == '\'') {
+                    if (c == '\'') quote = 0;
+                    else current.append(c);
+                } else if (quote == '"') {
+                    if (c == '"') {
+                        quote = 0;
+                    } else if (!IS_WINDOWS && (c == '$' || c == '`')) {
+                        return null; // Expanded inside double quotes
+                    } else if (!IS_WINDOWS && c == '\\' && i + 1 < line.length() && "\"\\".indexOf(line.charAt(i + 1)) >= 0) {
+                        current.append(line.charAt(++i));
+                    } else if (IS_WINDOWS && c == '%') {
+                        return null;
+                    } else {
+                        current.append(c);
+                    }
+                } else if (c == ' ' || c == '\t') {
+                    if (inArg) args.add(current.toString());
+                    current.setLength(0);
+                    inArg = false;
+                } else if (c == '"' || (c == '\'' && !IS_WINDOWS)) {
+                    quote = c;
+                    inArg = true;
+                } else if (c == '\\' && !IS_WINDOWS) {
+                    if (i + 1 == line.length()) return null;
+                    current.append(line.charAt(++i));
+                    inArg = true;
+                } else if (SHELL_CHARS.indexOf(c) >= 0 || (!inArg && (c == '~' || c == '#'))
+                        || (c == '=' && args.isEmpty() && !IS_WINDOWS)) {
+                    return null; // Pipes, redirection, globs, home directory, comments, VAR=value
+                } else {
+                    current.append(c);
+                    inArg = true;
+                }
+            }
+            if (quote != 0) return null; // Unbalanced - let the shell report it
+            if (inArg) args.add(current.toString());
+            return args;
+        }
+
+        // Absolute path of a program on PATH (or relative to the directory if it has a path), null if missing
+        static Path which(String name, File directory) {
+            if (name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0) {
+                Path path = directory == null ? Paths.get(name) : directory.toPath().resolve(name);
+                return Files.isRegularFile(path) && Files.isExecutable(path) ? path.toAbsolutePath() : null;
+            }
+
+            Path cached = programs.get(name);
+            if (cached != null && Files.isExecutable(cached)) return cached; // One stat instead of a PATH walk
+
+            String path = System.getenv("PATH");
+            if (path == null) return null;
+            java.util.List<String> extensions = IS_WINDOWS && name.indexOf('.') < 0
+                ? Arrays.asList(System.getenv().getOrDefault("PATHEXT", ".COM;.EXE;.BAT;.CMD").toLowerCase().split(";"))
+                : Collections.singletonList("");
+            for (String dir : path.split(File.pathSeparator)) {
+                if (dir.isEmpty()) continue;
+                for (String extension : extensions) {
+                    try {
+                        Path candidate = Paths.get(dir, name + extension);
+                        if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+                            programs.put(name, candidate);
+                            return candidate;
+                        }
+                    } catch (InvalidPathException e) {
+                        // Junk entry in PATH
+                    }
+                }
+            }
+            programs.remove(name);
+            return null;
+        }
+
+        // The program to start for a tool such as node - its absolute path when it is on PATH
+        static String program(String tool) {
+            Path program = which(tool, null);
+            return program != null ? program.toString() : tool;
+        }
+
+        // First line of "<tool> --version" (node, npm, npx), asked once per run of the IDE. Null if it fails
+        static String version(String tool) {
+            String cached = versions.get(tool);
+            if (cached != null) return cached;
+            try {
+                Process process = new ProcessBuilder(command(tool + " --version", null)).redirectErrorStream(true).start();
+                process.getOutputStream().close();
+                String line;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    line = reader.readLine();
+                }
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                    return null;
+                }
+                if (process.exitValue() != 0 || line == null) return null;
+                versions.put(tool, line.trim());
+                return line.trim();
+            } catch (IOException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    // Stops a process together with everything it started. Every process in the tree first gets a
+    // normal destroy (SIGTERM on Unix) so servers can close their ports and flush; whatever is
+    // still alive after the grace period (nodeide.stop.graceMs, default 3000) is killed forcibly
+    static class ProcessTree {
+        static final long GRACE_MS = Long.getLong("nodeide.stop.graceMs", 3000);
+
+        static class Result {
+            final java.util.List<Long> terminated = new ArrayList<>(); // Exited within the grace period
+            final java.util.List<Long> killed = new ArrayList<>(); // Had to be force-killed
+
+            // Terminal line listing the reaped PIDs, empty if nothing was running
+            String describe() {
+                if (terminated.isEmpty() && killed.isEmpty()) return "";
+
+                StringBuilder text = new StringBuilder("[Stopped process tree:");
+                if (!terminated.isEmpty()) text.append(" terminated ").append(join(terminated));
+                if (!terminated.isEmpty() && !killed.isEmpty()) text.append(";");
+                if (!killed.isEmpty()) text.append(" force-killed ").append(join(killed));
+                return text.append("]\n").toString();
+            }
+
+            private static String join(java.util.List<Long> pids) {
+                StringBuilder text = new StringBuilder();
+                for (Long pid : pids) {
+                    if (text.length() > 0) text.append(", ");
+                    text.append(pid);
+                }
+                return text.toString();
+            }
+        }
+
+        // Blocks for up to the grace period - call it from a background thread
+        static Result stop(ProcessHandle root) {
+            // Collect the tree before anything dies - orphans get re-parented and can't be found later
+            Map<Long, ProcessHandle> tree = new LinkedHashMap<>();
+            collect(root, tree);
+
+            Map<Long, CompletableFuture<ProcessHandle>> exits = new LinkedHashMap<>();
+            for (ProcessHandle handle : tree.values()) {
+                if (handle.isAlive() && handle.destroy()) {
+                    exits.put(handle.pid(), handle.onExit());
+                }
+            }
+
+            try {
+                CompletableFuture.allOf(exits.values().toArray(new CompletableFuture<?>[0])).get(GRACE_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Some ignored the request - handled below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // Anything forked during the grace period is part of the tree too
+            if (root.isAlive()) collect(root, tree);
+
+            Result result = new Result();
+            for (ProcessHandle handle : tree.values()) {
+                if (handle.isAlive()) {
+                    handle.destroyForcibly();
+                    result.killed.add(handle.pid());
+                } else if (exits.containsKey(handle.pid())) {
+                    result.terminated.add(handle.pid());
+                }
+            }
+            return result;
+        }
+
+        // Children before parents, so a shell can't restart what it is waiting on
+        private static void collect(ProcessHandle root, Map<Long, ProcessHandle> tree) {
+            java.util.List<ProcessHandle> descendants = new ArrayList<>();
+            root.descendants().forEach(descendants::add);
+            Collections.reverse(descendants);
+            for (ProcessHandle handle : descendants) {
+                tree.putIfAbsent(handle.pid(), handle);
+            }
+            tree.putIfAbsent(root.pid(), root);
+        }
+    }
+
+    // One terminal tab: its own output view, pipeline and scrollback, plus the command running in
+    // it. State changes may come from any thread and are reported to the listener on the EDT
+    static class ProcessSession {
+        enum State { IDLE, RUNNING, FINISHED, FAILED, STOPPED }
+
+        private final String name;
+        private final Scrollback scrollback = new Scrollback();
+        private final ResourceStats stats = new ResourceStats();
+        private final TerminalView view = new TerminalView(scrollback);
+        private final JScrollPane component = new JScrollPane(view);
+        private final OutputPipeline output;
+        private final AttributeSet noticeStyle;
+        private final Consumer<ProcessSession> onChange;
+        private volatile State state = State.IDLE;
+        private volatile boolean busy; // begin() to finish() - a stopped run stays busy until its process is gone and its output drained
+        private volatile String command;
+        private volatile Process process;
+        private volatile int exitCode;
+        private volatile BufferedWriter stdin; // null once the process is gone or its input was closed
+        // Metrics of the current run - the output counters are written by the one reader thread
+        private volatile long startedNanos;
+        private volatile long startedMillis;
+        private volatile long firstOutputNanos;
+        private volatile long outputBytes;
+        private volatile long outputLines;
+        private CompletableFuture<Void> pendingInput = CompletableFuture.completedFuture(null);
+        private CompletableFuture<?> stopping; // Stops under way, of this run and any earlier one still reaping
+        private Process stopped; // Process the last stop was for
+
+        ProcessSession(String name, AttributeSet noticeStyle, Consumer<ProcessSession> onChange) {
+            this.name = name;
+            this.noticeStyle = noticeStyle;
+            this.onChange = onChange;
+            view.setFont(new Font("Consolas", Font.PLAIN, 13));
+            view.setBackground(new Color(20, 20, 20));
+            view.setForeground(Color.WHITE);
+            output = new OutputPipeline(this::write, noticeStyle);
+        }
+
+        // Safe from any thread, shows up on the next frame
+        void append(String text, AttributeSet style) {
+            output.append(text, style);
+        }
+
+        // Claim the session for a command - it counts as busy from here on
+        void begin(String command) {
+            this.command = command;
+            this.process = null;
+            this.exitCode = 0;
+            startedNanos = System.nanoTime();
+            startedMillis = System.currentTimeMillis();
+            firstOutputNanos = 0;
+            outputBytes = 0;
+            outputLines = 0;
+            stats.reset();
+            busy = true;
+            state = State.RUNNING;
+            fireChange();
+        }
+
+        // The command's process has started. Returns false if the session was stopped in the
+        // meantime - the process is killed right away then
+        boolean attach(Process process) {
+            return attach(process, true);
+        }
+
+        // interactive = false when the process's stdin is not the user's (e.g. a warm Node worker)
+        boolean attach(Process process, boolean interactive) {
+            this.process = process;
+            if (state == State.STOPPED) {
+                terminate(process);
+                return false;
+            }
+            if (interactive) {
+                stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            }
+            fireChange();
+            return true;
+        }
+
+        // True while typed lines can go to the running process
+        boolean acceptsInput() {
+            return state == State.RUNNING && stdin != null;
+        }
+
+        // Queue a line for the process's stdin. Writes happen in order on a background thread,
+        // so a process that doesn't read its input never blocks the GUI
+        boolean sendInput(String line) {
+            BufferedWriter writer = stdin;
+            if (writer == null) return false;
+
+            pendingInput = pendingInput.thenRunAsync(() -> {
+                try {
+                    writer.write(line);
+                    writer.write('\n');
+                    writer.flush();
+                } catch (IOException e) {
+                    // Process stopped reading or exited - the exit is reported on its own
+                }
+            }, Workers.io());
+            return true;
+        }
+
+        // End of input (Ctrl+D) - closes stdin once the queued lines are written
+        boolean closeInput() {
+            BufferedWriter writer = stdin;
+            if (writer == null) return false;
+
+            stdin = null;
+            pendingInput = pendingInput.thenRunAsync(() -> {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // Already closed by the process exiting
+                }
+            }, Workers.io());
+            fireChange();
+            return true;
+        }
+
+        // Output of the command's process: counted for the run's metrics, then shown in the tab
+        void received(String text, AnsiParser ansi) {
+            if (firstOutputNanos == 0) firstOutputNanos = System.nanoTime();
+
+            long bytes = 0, lines = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n') lines++;
+                bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3; // UTF-8 size
+            }
+            outputBytes += bytes;
+            outputLines += lines;
+            ansi.feed(text, this::append);
+        }
+
+        // The command is over - exit code -1 if it could not be started. Returns the run's metrics
+        CommandHistory.RunRecord finish(int exitCode) {
+            this.exitCode = exitCode;
+            this.stdin = null;
+            if (state == State.RUNNING) {
+                state = exitCode == 0 ? State.FINISHED : State.FAILED;
+            }
+            busy = false;
+            fireChange();
+
+            long now = System.nanoTime();
+            return new CommandHistory.RunRecord(command, startedMillis, (now - startedNanos) / 1_000_000,
+                firstOutputNanos == 0 ? -1 : (firstOutputNanos - startedNanos) / 1_000_000,
+                outputBytes, outputLines, exitCode, (long) stats.peak(ResourceStats.RSS));
+        }
+
+        // Returns true if there was something to stop. The process tree is stopped in the
+        // background and the reaped PIDs are reported in the tab when it is done
+        boolean stop() {
+            if (state != State.RUNNING) return false;
+            state = State.STOPPED;
+            Process current = process;
+            if (current != null) terminate(current);
+            fireChange();
+            return true;
+        }
+
+        // Completes when the stops under way have finished (a new run does not forget an old one
+        // whose children are still being reaped), right away otherwise
+        synchronized CompletableFuture<?> whenStopped() {
+            return stopping != null ? stopping : CompletableFuture.completedFuture(null);
+        }
+
+        void clear() {
+            view.clear();
+            scrollback.reset();
+            fireChange();
+        }
+
+        // True from begin() until finish(), also after Stop while the process is still exiting -
+        // a new command must not get the tab before the old output has stopped coming
+        boolean isBusy() {
+            return busy;
+        }
+
+        State getState() {
+            return state;
+        }
+
+        String getCommand() {
+            return command;
+        }
+
+        Process getProcess() {
+            return process;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        Scrollback getScrollback() {
+            return scrollback;
+        }
+
+        ResourceStats getStats() {
+            return stats;
+        }
+
+        JComponent getComponent() {
+            return component;
+        }
+
+        String getTitle() {
+            String label = command == null ? name : command.length() > 24 ? command.substring(0, 23) + "…" : command;
+            switch (state) {
+                case RUNNING: return "● " + label;
+                case FINISHED: return "✓ " + label;
+                case FAILED: return "✗ " + label;
+                case STOPPED: return "■ " + label;
+                default: return label;
+            }
+        }
+
+        // Stop the process and whatever it started - "sh -c" would otherwise leave its child running
+        private synchronized void terminate(Process process) {
+            if (stopped == process) return; // attach() and stop() raced - one stop is enough
+            stopped = process;
+
+            CompletableFuture<ProcessTree.Result> stop = CompletableFuture.supplyAsync(() -> ProcessTree.stop(process.toHandle()), Workers.io());
+            stop.thenAccept(result -> {
+                String report = result.describe();
+                if (!report.isEmpty()) append(report, noticeStyle);
+            });
+            stopping = stopping == null || stopping.isDone() ? stop : CompletableFuture.allOf(stopping, stop);
+        }
+
+        private void write(java.util.List<OutputPipeline.Chunk> batch) {
+            for (OutputPipeline.Chunk chunk : batch) {
+                view.append(chunk.text, chunk.style);
+            }
+            if (view.commit()) {
+                onChange.accept(this); // Old lines were trimmed
+            }
+        }
+
+        private void fireChange() {
+            if (SwingUtilities.isEventDispatchThread()) {
+                onChange.accept(this);
+            } else {
+                SwingUtilities.invokeLater(() -> onChange.accept(this));
+            }
+        }
+    }
+
+    // The terminal tabs. A command runs in the selected tab when nothing is running there,
+    // otherwise it gets a tab of its own, so a dev server, a watcher and a test run can all be
+    // alive at once - each with its own output and its own Stop. Used on the EDT only
+    static class SessionManager {
+        private final JTabbedPane tabs = new JTabbedPane();
+        private final java.util.List<ProcessSession> sessions = new CopyOnWriteArrayList<>(); // Also read by the resource monitor
+        private final AttributeSet noticeStyle;
+        private final Consumer<ProcessSession> onChange;
+        private int created;
+
+        // onChange hears about the selected session whenever it changes or another tab gets selected
+        SessionManager(AttributeSet noticeStyle, Consumer<ProcessSession> onChange) {
+            this.noticeStyle = noticeStyle;
+            this.onChange = onChange;
+            newSession();
+            tabs.addChangeListener(e -> {
+                ProcessSession session = current();
+                if (session != null) onChange.accept(session);
+            });
+        }
+
+        JComponent getComponent() {
+            return tabs;
+        }
+
+        ProcessSession newSession() {
+            ProcessSession session = new ProcessSession("Terminal " + (++created), noticeStyle, this::changed);
+            sessions.add(session);
+            tabs.addTab(session.getTitle(), session.getComponent());
+            tabs.setSelectedComponent(session.getComponent());
+            return session;
+        }
+
+        ProcessSession current() {
+            int index = tabs.getSelectedIndex();
+            return index < 0 ? null : sessions.get(index);
+        }
+
+        // Where a new command should run: the selected tab if it is idle, otherwise a new tab
+        ProcessSession sessionForCommand() {
+            ProcessSession session = current();
+            return session.isBusy() ? newSession() : session;
+        }
+
+        // Stops whatever runs in the tab. The last tab is never removed, it is cleared instead
+        void close(ProcessSession session) {
+            session.stop();
+            if (sessions.size() == 1) {
+                session.clear();
+                return;
+            }
+            int index = sessions.indexOf(session);
+            sessions.remove(index);
+            tabs.removeTabAt(index);
+        }
+
+        // Stop everything still running, so no process outlives the window. Does not block: the
+        // result completes once all of it has exited, or after the grace period plus a little
+        CompletableFuture<Void> stopAll() {
+            java.util.List<CompletableFuture<?>> pending = new ArrayList<>();
+            for (ProcessSession session : sessions) {
+                session.stop();
+                pending.add(session.whenStopped());
+            }
+
+            return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, error) -> {
+                    if (error != null) error.printStackTrace();
+                    return (Void) null;
+                })
+                .completeOnTimeout(null, ProcessTree.GRACE_MS + 1000, TimeUnit.MILLISECONDS);
+        }
+
+        java.util.List<ProcessSession> getSessions() {
+            return Collections.unmodifiableList(sessions);
+        }
+
+        private void changed(ProcessSession session) {
+            int index = sessions.indexOf(session);
+            if (index < 0) return; // Tab was closed
+
+            tabs.setTitleAt(index, session.getTitle());
+            if (session == current()) onChange.accept(session);
+        }
+    }
+
+    // Keeps the terminal from growing forever. Once the output passes the line or character
+    // limit (nodeide.scrollback.lines / nodeide.scrollback.chars), whole lines are cut from the
+    // top in one go, down to 90% of the limit so trimming doesn't happen on every frame
+    static class Scrollback {
+        final int maxLines = Integer.getInteger("nodeide.scrollback.lines", 1000000);
+        final int maxChars = Integer.getInteger("nodeide.scrollback.chars", 16 * 1024 * 1024);
+        private long droppedLines;
+        private long droppedChars;
+
+        // Returns the number of lines removed from the head of the buffer
+        int trim(TerminalBuffer buffer) {
+            int lines = buffer.getLineCount();
+            int length = buffer.length();
+            if (lines <= maxLines && length <= maxChars) return 0;
+
+            int keepLines = maxLines / 10 * 9;
+            int keepChars = maxChars / 10 * 9;
+            int removeLines = Math.max(0, lines - keepLines);
+            if (length - buffer.lineStart(removeLines) > keepChars) {
+                removeLines = buffer.lineAt(length - keepChars) + 1;
+            }
+            removeLines = Math.min(removeLines, lines - 1); // The line being written is never cut
+            if (removeLines <= 0) return 0;
+
+            int end = buffer.lineStart(removeLines);
+            buffer.removeHead(removeLines);
+            droppedLines += removeLines;
+            droppedChars += end;
+            return removeLines;
+        }
+
+        long getDroppedLines() {
+            return droppedLines;
+        }
+
+        long getDroppedChars() {
+            return droppedChars;
+        }
+
+        void reset() {
+            droppedLines = 0;
+            droppedChars = 0;
+        }
+
+        // Text for the indicator, empty while nothing was trimmed
+        String describe() {
+            if (droppedLines == 0) return "";
+            return String.format("%,d lines (%,d KB) trimmed from scrollback", droppedLines, droppedChars / 1024);
+        }
+    }
+
+    // Compact store for terminal output. All text lives in one char array without line breaks;
+    // line i starts at lineStarts[i], and style runs are kept separately as (start, style id)
+    // pairs, so a million lines cost a few int arrays instead of a million objects
+    static class TerminalBuffer {
+        private static final int TAB_SIZE = 8;
+
+        private char[] text = new char[8192];
+        private int length;
+        private int[] lineStarts = new int[1024];
+        private int lineCount = 1; // The last line is the one still being written
+        private int[] runStarts = new int[64];
+        private int[] runStyles = new int[64];
+        private int runCount;
+        private int maxColumns;
+        private boolean pendingReturn; // A '\r' was seen - the next character rewrites the line
+        private final java.util.List<AttributeSet> styles = new ArrayList<>();
+        private final Map<AttributeSet, Integer> styleIds = new HashMap<>();
+
+        void append(String s, AttributeSet style) {
+            int styleId = styleId(style);
+            startRun(styleId);
+            ensureText(length + s.length());
+
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\r') {
+                    pendingReturn = true; // Wait for the next character - it may be the '\n' of a CRLF
+                    continue;
+                }
+                if (c == '\n') {
+                    pendingReturn = false;
+                    endLine();
+                    continue;
+                }
+                if (pendingReturn) {
+                    pendingReturn = false;
+                    rewindLine(styleId);
+                }
+
+                if (c == '\t') {
+                    int spaces = TAB_SIZE - (length - lineStarts[lineCount - 1]) % TAB_SIZE;
+                    ensureText(length + spaces + s.length() - i);
+                    for (int k = 0; k < spaces; k++) text[length++] = ' ';
+                } else {
+                    text[length++] = c;
+                }
+            }
+            maxColumns = Math.max(maxColumns, length - lineStarts[lineCount - 1]);
+        }
+
+        void clear() {
+            length = 0;
+            lineCount = 1;
+            runCount = 0;
+            maxColumns = 0;
+            pendingReturn = false;
+        }
+
+        // Drop the first count lines (the line being written is always kept)
+        void removeHead(int count) {
+            count = Math.min(count, lineCount - 1);
+            if (count <= 0) return;
+
+            int cut = lineStarts[count];
+            System.arraycopy(text, cut, text, 0, length - cut);
+            length -= cut;
+
+            lineCount -= count;
+            System.arraycopy(lineStarts, count, lineStarts, 0, lineCount);
+            for (int i = 0; i < lineCount; i++) {
+                lineStarts[i] -= cut;
+            }
+
+            // Keep the run that covers the new first character, drop the ones before it
+            int firstRun = Math.max(0, runAt(cut));
+            runCount -= firstRun;
+            System.arraycopy(runStarts, firstRun, runStarts, 0, runCount);
+            System.arraycopy(runStyles, firstRun, runStyles, 0, runCount);
+            for (int i = 0; i < runCount; i++) {
+                runStarts[i] = Math.max(0, runStarts[i] - cut);
+            }
+
+            maxColumns = 0;
+            for (int i = 0; i < lineCount; i++) {
+                maxColumns = Math.max(maxColumns, lineEnd(i) - lineStarts[i]);
+            }
+        }
+
+        int getLineCount() {
+            return lineCount;
+        }
+
+        int length() {
+            return length;
+        }
+
+        int getMaxColumns() {
+            return maxColumns;
+        }
+
+        char[] chars() {
+            return text;
+        }
+
+        int lineStart(int line) {
+            return lineStarts[line];
+        }
+
+        int lineEnd(int line) {
+            return line + 1 < lineCount ? lineStarts[line + 1] : length;
+        }
+
+        // Line containing the given text offset
+        int lineAt(int offset) {
+            int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+            if (index >= 0) {
+                while (index + 1 < lineCount && lineStarts[index + 1] == offset) index++;
+                return index;
+            }
+            return -index - 2;
+        }
+
+        // Style run containing the given text offset, -1 before the first run
+        int runAt(int offset) {
+            int index = Arrays.binarySearch(runStarts, 0, runCount, offset);
+            if (index >= 0) {
+                while (index + 1 < runCount && runStarts[index + 1] == offset) index++;
+                return index;
+            }
+            return -index - 2;
+        }
+
+        int runEnd(int run) {
+            return run + 1 < runCount ? runStarts[run + 1] : length;
+        }
+
+        AttributeSet runStyle(int run) {
+            return run < 0 ? null : styles.get(runStyles[run]);
+        }
+
+        String getText(int line, int fromColumn, int toColumn) {
+            int start = lineStarts[line];
+            int end = lineEnd(line);
+            int from = Math.min(end, start + fromColumn);
+            int to = Math.min(end, start + toColumn);
+            return new String(text, from, Math.max(0, to - from));
+        }
+
+        private int styleId(AttributeSet style) {
+            Integer id = styleIds.get(style);
+            if (id == null) {
+                id = styles.size();
+                styles.add(style);
+                styleIds.put(style, id);
+            }
+            return id;
+        }
+
+        private void startRun(int style) {
+            if (runCount > 0 && runStyles[runCount - 1] == style) return;
+            if (runCount > 0 && runStarts[runCount - 1] == length) {
+                runStyles[runCount - 1] = style; // Previous run is still empty - reuse it
+                return;
+            }
+            if (runCount == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                runStyles = Arrays.copyOf(runStyles, runCount * 2);
+            }
+            runStarts[runCount] = length;
+            runStyles[runCount] = style;
+            runCount++;
+        }
+
+        // Carriage return: the line being written starts over (progress bars redraw this way)
+        private void rewindLine(int style) {
+            length = lineStarts[lineCount - 1];
+            while (runCount > 0 && runStarts[runCount - 1] >= length) runCount--;
+            startRun(style);
+        }
+
+        private void endLine() {
+            maxColumns = Math.max(maxColumns, length - lineStarts[lineCount - 1]);
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            }
+            lineStarts[lineCount++] = length;
+        }
+
+        private void ensureText(int capacity) {
+            if (capacity > text.length) {
+                text = Arrays.copyOf(text, Math.max(capacity, text.length * 2));
+            }
+        }
+    }
+
+    // Terminal output component that paints only the lines inside the visible viewport, so
+    // appending, scrolling and repainting cost the same at ten lines or ten million.
+    // Supports mouse selection with Ctrl+C / Ctrl+A like the text pane it replaces
+    static class TerminalView extends JComponent implements Scrollable {
+        private static final int PADDING = 4;
+
+        private final TerminalBuffer buffer = new TerminalBuffer();
+        private final Scrollback scrollback;
+        private Font boldFont;
+        private int lineHeight;
+        private int ascent;
+        private int charWidth;
+        // Selection as (line, column) anchor and end, line -1 when nothing is selected
+        private int anchorLine = -1;
+        private int anchorColumn;
+        private int endLine;
+        private int endColumn;
+
+        TerminalView(Scrollback scrollback) {
+            this.scrollback = scrollback;
+            setOpaque(true);
+            setFocusable(true);
+            setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+
+            MouseAdapter selection = new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    requestFocusInWindow();
+                    anchorLine = endLine = lineAtY(e.getY());
+                    anchorColumn = endColumn = columnAtX(e.getX());
+                    repaint();
+                }
+
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    if (anchorLine < 0) return;
+                    endLine = lineAtY(e.getY());
+                    endColumn = columnAtX(e.getX());
+                    scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+                    repaint();
+                }
+            };
+            addMouseListener(selection);
+            addMouseMotionListener(selection);
+
+            getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK), "copy");
+            getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_A, InputEvent.CTRL_DOWN_MASK), "selectAll");
+            getActionMap().put("copy", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    copySelection();
+                }
+            });
+            getActionMap().put("selectAll", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    anchorLine = 0;
+                    anchorColumn = 0;
+                    endLine = buffer.getLineCount() - 1;
+                    endColumn = Integer.MAX_VALUE;
+                    repaint();
+                }
+            });
+        }
+
+        // Add output - nothing is repainted until commit()
+        void append(String text, AttributeSet style) {
+            buffer.append(text, style);
+        }
+
+        // Show everything appended since the last commit: trim the scrollback, resize, follow the
+        // bottom if the user was there, and repaint the viewport. Returns true if lines were trimmed
+        boolean commit() {
+            JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+            Rectangle visible = getVisibleRect();
+            boolean atBottom = visible.y + visible.height >= getHeight() - lineHeight;
+
+            int removed = scrollback.trim(buffer);
+            if (removed > 0 && anchorLine >= 0) {
+                anchorLine = Math.max(0, anchorLine - removed);
+                endLine = Math.max(0, endLine - removed);
+            }
+
+            revalidate();
+            if (viewport != null) {
+                // Size the view now (the same size the viewport layout will pick) so the new height is known below
+                Dimension size = getPreferredSize();
+                Dimension extent = viewport.getExtentSize();
+                viewport.setViewSize(new Dimension(Math.max(size.width, extent.width), Math.max(size.height, extent.height)));
+                Point position = viewport.getViewPosition();
+                if (atBottom) {
+                    position.y = Math.max(0, getHeight() - viewport.getHeight());
+                } else if (removed > 0) {
+                    position.y = Math.max(0, position.y - removed * lineHeight); // Keep the same text in view
+                }
+                viewport.setViewPosition(position);
+            }
+            repaint();
+            return removed > 0;
+        }
+
+        void clear() {
+            buffer.clear();
+            anchorLine = -1;
+            revalidate();
+            repaint();
+        }
+
+        @Override
+        public void setFont(Font font) {
+            // Painting works in fixed columns, so fall back to a monospaced font if needed
+            if (!font.getFamily().equals(font.getName()) && !font.getName().equals(Font.MONOSPACED)) {
+                font = new Font(Font.MONOSPACED, font.getStyle(), font.getSize());
+            }
+            super.setFont(font);
+            boldFont = font.deriveFont(Font.BOLD);
+            FontMetrics metrics = getFontMetrics(font);
+            lineHeight = metrics.getHeight();
+            ascent = metrics.getAscent();
+            charWidth = Math.max(1, metrics.charWidth('m'));
+            revalidate();
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            return new Dimension(buffer.getMaxColumns() * charWidth + 2 * PADDING, buffer.getLineCount() * lineHeight + PADDING);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Rectangle clip = g.getClipBounds();
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+            int firstLine = Math.max(0, clip.y / lineHeight);
+            int lastLine = Math.min(buffer.getLineCount() - 1, (clip.y + clip.height) / lineHeight);
+            int firstColumn = Math.max(0, (clip.x - PADDING) / charWidth);
+            int lastColumn = (clip.x + clip.width - PADDING) / charWidth + 1;
+            char[] chars = buffer.chars();
+
+            for (int line = firstLine; line <= lastLine; line++) {
+                int y = line * lineHeight;
+                int start = buffer.lineStart(line);
+                int end = Math.min(buffer.lineEnd(line), start + lastColumn);
+
+                // Backgrounds first, then the selection on top, then the text
+                int position = start + firstColumn;
+                for (int run = buffer.runAt(position); position < end; run++) {
+                    int runEnd = run < 0 ? end : Math.min(end, buffer.runEnd(run));
+                    AttributeSet style = buffer.runStyle(run);
+                    if (style != null && style.isDefined(StyleConstants.Background)) {
+                        g.setColor(StyleConstants.getBackground(style));
+                        g.fillRect(PADDING + (position - start) * charWidth, y, (runEnd - position) * charWidth, lineHeight);
+                    }
+                    position = runEnd;
+                }
+                paintSelection(g, line, y);
+
+                position = start + firstColumn;
+                for (int run = buffer.runAt(position); position < end; run++) {
+                    int runEnd = run < 0 ? end : Math.min(end, buffer.runEnd(run));
+                    AttributeSet style = buffer.runStyle(run);
+                    int x = PADDING + (position - start) * charWidth;
+                    g.setFont(style != null && StyleConstants.isBold(style) ? boldFont : getFont());
+                    g.setColor(style != null && style.isDefined(StyleConstants.Foreground) ? StyleConstants.getForeground(style) : getForeground());
+                    g.drawChars(chars, position, runEnd - position, x, y + ascent);
+                    if (style != null && StyleConstants.isUnderline(style)) {
+                        g.drawLine(x, y + ascent + 1, x + (runEnd - position) * charWidth - 1, y + ascent + 1);
+                    }
+                    position = runEnd;
+                }
+            }
+        }
+
+        private void paintSelection(Graphics g, int line, int y) {
+            if (anchorLine < 0) return;
+
+            boolean forward = anchorLine < endLine || (anchorLine == endLine && anchorColumn <= endColumn);
+            int fromLine = forward ? anchorLine : endLine;
+            int fromColumn = forward ? anchorColumn : endColumn;
+            int toLine = forward ? endLine : anchorLine;
+            int toColumn = forward ? endColumn : anchorColumn;
+            if (line < fromLine || line > toLine) return;
+
+            int startColumn = line == fromLine ? fromColumn : 0;
+            int endColumnOnLine = line == toLine ? Math.min(toColumn, buffer.getMaxColumns()) : buffer.getMaxColumns();
+            g.setColor(new Color(60, 90, 150));
+            g.fillRect(PADDING + startColumn * charWidth, y, Math.max(0, endColumnOnLine - startColumn) * charWidth, lineHeight);
+        }
+
+        private void copySelection() {
+            if (anchorLine < 0) return;
+
+            boolean forward = anchorLine < endLine || (anchorLine == endLine && anchorColumn <= endColumn);
+            int fromLine = forward ? anchorLine : endLine;
+            int fromColumn = forward ? anchorColumn : endColumn;
+            int toLine = Math.min(buffer.getLineCount() - 1, forward ? endLine : anchorLine);
+            int toColumn = forward ? endColumn : anchorColumn;
+
+            StringBuilder text = new StringBuilder();
+            for (int line = fromLine; line <= toLine; line++) {
+                text.append(buffer.getText(line, line == fromLine ? fromColumn : 0, line == toLine ? toColumn : Integer.MAX_VALUE));
+                if (line < toLine) text.append('\n');
+            }
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new java.awt.datatransfer.StringSelection(text.toString()), null);
+        }
+
+        private int lineAtY(int y) {
+            return Math.max(0, Math.min(buffer.getLineCount() - 1, y / lineHeight));
+        }
+
+        private int columnAtX(int x) {
+            return Math.max(0, (x - PADDING + charWidth / 2) / charWidth);
+        }
+
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? lineHeight : charWidth;
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? visibleRect.height - lineHeight : visibleRect.width;
+        }
+
+        // Stretch to fill the viewport while the content is smaller than it
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+        }
+    }
+
+    // Helper class to store file information while displaying only the name
+    class FileNode {
+        private String name;
+        private File file;
+        private boolean isDirectory;
+        private long modified;
+        private boolean loaded;
+        private boolean loading;
+        
+        public FileNode(String name, File file, boolean isDirectory) {
+            this(name, file, isDirectory, 0);
+        }
+        
+        public FileNode(String name, File file, boolean isDirectory, long modified) {
+            this.name = name;
+            this.file = file;
+            this.isDirectory = isDirectory;
+            this.modified = modified;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public File getFile() {
+            return file;
+        }
+        
+        public boolean isDirectory() {
+            return isDirectory;
+        }
+        
+        public long getModified() {
+            return modified;
+        }
+        
+        public boolean isLoaded() {
+            return loaded;
+        }
+        
+        public void setLoaded(boolean loaded) {
+            this.loaded = loaded;
+        }
+        
+        public boolean isLoading() {
+            return loading;
+        }
+        
+        public void setLoading(boolean loading) {
+            this.loading = loading;
+        }
+        
+        @Override
+        public String toString() {
+            return name; // This ensures only the filename is displayed in the tree
+        }
+    }
+
+    // AbstractDocument.Content as a piece table: the text is a sequence of pieces pointing into
+    // char arrays that never change once written (the loaded file, and append-only blocks for
+    // typed text), kept in a persistent treap ordered by position. Insert and remove rebuild
+    // only the O(log n) nodes on one path, so an edit costs the same anywhere in a 20 MB file,
+    // and snapshot() just keeps the current root - an immutable view any thread can read while
+    // editing goes on.
+    // Positions (Swing keeps two per line) are sorted into blocks that each carry a shift, so an
+    // edit moves the blocks after it by changing one number instead of touching every mark
+    static class PieceTable implements AbstractDocument.Content {
+        private static final int ADD_BLOCK = 64 * 1024;
+        private static final int MARK_BLOCK = 256;
+
+        private volatile Node root = new Node(new char[] {'\n'}, 0, 1, null, null, random());
+        private char[] add = new char[0]; // Current append-only block for typed text
+        private int added;
+
+        private final java.util.List<MarkBlock> blocks = new ArrayList<>();
+        private final ReferenceQueue<StickyPosition> collected = new ReferenceQueue<>();
+
+        public int length() {
+            return root.size;
+        }
+
+        // The document text at this moment, without the final newline that Content always has
+        Snapshot snapshot() {
+            Node current = root;
+            return new Snapshot(current, current.size - 1);
+        }
+
+        public UndoableEdit insertString(int where, String str) throws BadLocationException {
+            if (where < 0 || where >= length()) throw new BadLocationException("Invalid insert", where);
+            int length = str.length();
+            if (length == 0) return null;
+
+            Node[] parts = split(root, where);
+            Node left = parts[0];
+            if (length > ADD_BLOCK / 4) {
+                left = merge(left, new Node(str.toCharArray(), 0, length, null, null, random()));
+            } else {
+                if (added + length > add.length) {
+                    add = new char[ADD_BLOCK];
+                    added = 0;
+                }
+                str.getChars(0, length, add, added);
+                if (left != null && endsAt(left, add, added)) {
+                    left = extendLast(left, length); // Typing: grow the piece instead of adding one per key
+                } else {
+                    left = merge(left, new Node(add, added, length, null, null, random()));
+                }
+                added += length;
+            }
+            root = merge(left, parts[1]);
+
+            updateMarksForInsert(where, length);
+            return new InsertEdit(where, length);
+        }
+
+        public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+            if (where < 0 || nitems < 0 || where + nitems >= length()) throw new BadLocationException("Invalid remove", where + nitems);
+            if (nitems == 0) return null;
+
+            String removed = getString(where, nitems);
+            Node[] head = split(root, where);
+            Node[] tail = split(head[1], nitems);
+            root = merge(head[0], tail[1]);
+
+            updateMarksForRemove(where, nitems);
+            return new RemoveEdit(where, removed);
+        }
+
+        public String getString(int where, int len) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length()) throw new BadLocationException("Invalid range", where + len);
+            char[] chars = new char[len];
+            copy(root, where, where + len, chars, 0);
+            return new String(chars);
+        }
+
+        public void getChars(int where, int len, Segment txt) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length()) throw new BadLocationException("Invalid range", where + len);
+
+            // Inside one piece: hand out the piece's own array, which is never written again
+            Node node = root;
+            int offset = where;
+            while (node != null) {
+                int leftSize = size(node.left);
+                if (offset < leftSize) {
+                    node = node.left;
+                } else if (offset >= leftSize + node.length) {
+                    offset -= leftSize + node.length;
+                    node = node.right;
+                } else {
+                    int inPiece = offset - leftSize;
+                    int available = node.length - inPiece;
+                    if (len <= available || txt.isPartialReturn()) {
+                        txt.array = node.buffer;
+                        txt.offset = node.start + inPiece;
+                        txt.count = Math.min(len, available);
+                        return;
+                    }
+                    break;
+                }
+            }
+            char[] chars = new char[len];
+            copy(root, where, where + len, chars, 0);
+            txt.array = chars;
+            txt.offset = 0;
+            txt.count = len;
+        }
+
+        public Position createPosition(int offset) throws BadLocationException {
+            if (offset < 0 || offset > length()) throw new BadLocationException("Invalid position", offset);
+            purgeMarks();
+
+            int index = blockFor(offset);
+            if (index == blocks.size()) {
+                if (blocks.isEmpty()) blocks.add(new MarkBlock());
+                index = blocks.size() - 1; // After every mark - goes at the end of the last block
+            }
+            MarkBlock block = blocks.get(index);
+            int relative = offset - block.shift;
+            int at = block.search(relative);
+            if (at < block.marks.size() && block.marks.get(at).offset == relative) {
+                StickyPosition existing = block.marks.get(at).get();
+                if (existing != null) return existing; // Same offset, same behaviour - share it
+            }
+
+            StickyPosition position = new StickyPosition();
+            Mark mark = new Mark(position, collected, relative, block);
+            position.mark = mark;
+            block.marks.add(at, mark);
+            if (block.marks.size() > 2 * MARK_BLOCK) splitBlock(index);
+            return position;
+        }
+
+        // Marks at or after the insertion move with the text, except that text inserted at the very
+        // start goes after a mark at 0 (same rule as GapContent)
+        private void updateMarksForInsert(int where, int length) {
+            purgeMarks();
+            int from = where == 0 ? 1 : where;
+            int index = blockFor(from);
+            if (index == blocks.size()) return;
+
+            MarkBlock block = blocks.get(index);
+            for (int i = block.search(from - block.shift); i < block.marks.size(); i++) {
+                block.marks.get(i).offset += length;
+            }
+            for (int i = index + 1; i < blocks.size(); i++) blocks.get(i).shift += length;
+        }
+
+        // Marks inside the removed text collapse onto its start, later ones move back
+        private void updateMarksForRemove(int where, int count) {
+            purgeMarks();
+            int end = where + count;
+            for (int index = blockFor(where + 1); index < blocks.size(); index++) {
+                MarkBlock block = blocks.get(index);
+                if (block.marks.get(0).offset + block.shift > end) {
+                    block.shift -= count; // Whole block lies after the removed text
+                    continue;
+                }
+                for (int i = block.search(where + 1 - block.shift); i < block.marks.size(); i++) {
+                    Mark mark = block.marks.get(i);
+                    mark.offset = Math.max(where, mark.offset + block.shift - count) - block.shift;
+                }
+            }
+        }
+
+        // First block whose last mark is at or after the offset
+        private int blockFor(int offset) {
+            int low = 0, high = blocks.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                MarkBlock block = blocks.get(middle);
+                if (block.marks.get(block.marks.size() - 1).offset + block.shift < offset) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        private void splitBlock(int index) {
+            MarkBlock block = blocks.get(index);
+            MarkBlock next = new MarkBlock();
+            next.shift = block.shift;
+            java.util.List<Mark> moved = block.marks.subList(MARK_BLOCK, block.marks.size());
+            next.marks.addAll(moved);
+            moved.clear();
+            for (Mark mark : next.marks) mark.block = next;
+            blocks.add(index + 1, next);
+        }
+
+        // Drop marks whose Position is gone (elements of deleted lines, mostly)
+        private void purgeMarks() {
+            Reference<? extends StickyPosition> reference;
+            while ((reference = collected.poll()) != null) {
+                Mark mark = (Mark) reference;
+                mark.block.marks.remove(mark);
+                if (mark.block.marks.isEmpty()) blocks.remove(mark.block);
+            }
+        }
+
+        // Treap on implicit keys: a node's position is the size of everything to its left
+        private static final class Node {
+            final char[] buffer;
+            final int start;
+            final int length;
+            final Node left;
+            final Node right;
+            final int size;
+            final int priority;
+
+            Node(char[] buffer, int start, int length, Node left, Node right, int priority) {
+                this.buffer = buffer;
+                this.start = start;
+                this.length = length;
+                this.left = left;
+                this.right = right;
+                this.priority = priority;
+                this.size = length + size(left) + size(right);
+            }
+
+            Node with(Node left, Node right) {
+                return new Node(buffer, start, length, left, right, priority);
+            }
+        }
+
+        private static int size(Node node) {
+            return node == null ? 0 : node.size;
+        }
+
+        private static int random() {
+            return ThreadLocalRandom.current().nextInt();
+        }
+
+        // [0, offset) and [offset, size) - a piece that straddles the offset is cut in two
+        private static Node[] split(Node node, int offset) {
+            if (node == null) return new Node[2];
+            int leftSize = size(node.left);
+            if (offset <= leftSize) {
+                Node[] parts = split(node.left, offset);
+                return new Node[] {parts[0], node.with(parts[1], node.right)};
+            }
+            if (offset >= leftSize + node.length) {
+                Node[] parts = split(node.right, offset - leftSize - node.length);
+                return new Node[] {node.with(node.left, parts[0]), parts[1]};
+            }
+            int cut = offset - leftSize;
+            Node head = new Node(node.buffer, node.start, cut, node.left, null, node.priority);
+            Node tail = new Node(node.buffer, node.start + cut, node.length - cut, null, null, random());
+            return new Node[] {head, merge(tail, node.right)};
+        }
+
+        private static Node merge(Node a, Node b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            if (a.priority > b.priority) return a.with(a.left, merge(a.right, b));
+            return b.with(merge(a, b.left), b.right);
+        }
+
+        private static boolean endsAt(Node node, char[] buffer, int end) {
+            while (node.right != null) node = node.right;
+            return node.buffer == buffer && node.start + node.length == end;
+        }
+
+        private static Node extendLast(Node node, int length) {
+            if (node.right == null) return new Node(node.buffer, node.start, node.length + length, node.left, null, node.priority);
+            return node.with(node.left, extendLast(node.right, length));
+        }
+
+        // Copies [from, to) of the subtree into target, skipping subtrees outside the range
+        private static void copy(Node node, int from, int to, char[] target, int targetStart) {
+            if (node == null || from >= to) return;
+            int leftSize = size(node.left);
+            if (from < leftSize) copy(node.left, from, Math.min(to, leftSize), target, targetStart);
+            int pieceFrom = Math.max(from, leftSize), pieceTo = Math.min(to, leftSize + node.length);
+            if (pieceFrom < pieceTo) {
+                System.arraycopy(node.buffer, node.start + pieceFrom - leftSize, target, targetStart + pieceFrom - from, pieceTo - pieceFrom);
+            }
+            int rightStart = leftSize + node.length;
+            if (to > rightStart) {
+                copy(node.right, Math.max(0, from - rightStart), to - rightStart, target, targetStart + Math.max(0, rightStart - from));
+            }
+        }
+
+        // Writes the first `remaining` characters of the subtree, returns how many are still to go
+        private static int write(Node node, Writer out, int remaining) throws IOException {
+            if (node == null || remaining == 0) return remaining;
+            remaining = write(node.left, out, remaining);
+            int count = Math.min(node.length, remaining);
+            if (count > 0) out.write(node.buffer, node.start, count);
+            return write(node.right, out, remaining - count);
+        }
+
+        // Read-only text of one moment. Reads walk the shared, never-modified tree, so taking one
+        // is free and using it needs no lock
+        static final class Snapshot implements CharSequence {
+            private final Node root;
+            private final int length;
+
+            Snapshot(Node root, int length) {
+                this.root = root;
+                this.length = length;
+            }
+
+            public int length() {
+                return length;
+            }
+
+            // True if there was no edit in between - compares versions, not text, so it is instant
+            boolean isSameVersion(Snapshot other) {
+                return other != null && other.root == root;
+            }
+
+            public char charAt(int index) {
+                if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index: " + index);
+                Node node = root;
+                while (true) {
+                    int leftSize = size(node.left);
+                    if (index < leftSize) {
+                        node = node.left;
+                    } else if (index >= leftSize + node.length) {
+                        index -= leftSize + node.length;
+                        node = node.right;
+                    } else {
+                        return node.buffer[node.start + index - leftSize];
+                    }
+                }
+            }
+
+            void getChars(int from, int to, char[] target, int targetStart) {
+                if (from < 0 || to > length || from > to) throw new IndexOutOfBoundsException(from + ".." + to);
+                copy(root, from, to, target, targetStart);
+            }
+
+            public CharSequence subSequence(int from, int to) {
+                char[] chars = new char[to - from];
+                getChars(from, to, chars, 0);
+                return new String(chars);
+            }
+
+            @Override
+            public String toString() {
+                return subSequence(0, length).toString();
+            }
+
+            // Streams the text piece by piece - saving never builds the whole file as one String
+            void writeTo(Writer out) throws IOException {
+                write(root, out, length);
+            }
+        }
+
+        private static final class MarkBlock {
+            final ArrayList<Mark> marks = new ArrayList<>();
+            int shift;
+
+            // Index of the first mark at or after the relative offset
+            int search(int relative) {
+                int low = 0, high = marks.size();
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (marks.get(middle).offset < relative) low = middle + 1;
+                    else high = middle;
+                }
+                return low;
+            }
+        }
+
+        private static final class Mark extends WeakReference<StickyPosition> {
+            int offset; // Relative to the block's shift
+            MarkBlock block;
+
+            Mark(StickyPosition position, ReferenceQueue<StickyPosition> queue, int offset, MarkBlock block) {
+                super(position, queue);
+                this.offset = offset;
+                this.block = block;
+            }
+        }
+
+        private static final class StickyPosition implements Position {
+            Mark mark;
+
+            public int getOffset() {
+                return mark.offset + mark.block.shift;
+            }
+
+            @Override
+            public String toString() {
+                return Integer.toString(getOffset());
+            }
+        }
+
+        // Undo of the content change itself - the document's event undoes the line elements
+        private final class InsertEdit extends AbstractUndoableEdit {
+            private final int where;
+            private final int length;
+            private String text;
+
+            InsertEdit(int where, int length) {
+                this.where = where;
+                this.length = length;
+            }
+
+            @Override
+            public void undo() throws CannotUndoException {
+                super.undo();
+                try {
+                    text = getString(where, length);
+                    remove(where, length);
+                } catch (BadLocationException e) {
+                    throw new CannotUndoException();
+                }
+            }
+
+            @Override
+            public void redo() throws CannotRedoException {
+                super.redo();
+                try {
+                    insertString(where, text);
+                } catch (BadLocationException e) {
+                    throw new CannotRedoException();
+                }
+            }
+        }
+
+        private final class RemoveEdit extends AbstractUndoableEdit {
+            private final int where;
+            private final String text;
+
+            RemoveEdit(int where, String text) {
+                this.where = where;
+                this.text = text;
+            }
+
+            @Override
+            public void undo() throws CannotUndoException {
+                super.undo();
+                try {
+                    insertString(where, text);
+                } catch (BadLocationException e) {
+                    throw new CannotUndoException();
+                }
+            }
+
+            @Override
+            public void redo() throws CannotRedoException {
+                super.redo();
+                try {
+                    remove(where, text.length());
+                } catch (BadLocationException e) {
+                    throw new CannotRedoException();
+                }
+            }
+        }
+    }
+
+    // Editor document on a PieceTable - the same lines, events and undo as PlainDocument, plus
+    // snapshot() for readers that must not copy the text or hold the document lock (save, highlighting)
+    static class PieceDocument extends PlainDocument {
+        PieceDocument() {
+            super(new PieceTable());
+        }
+
+        PieceTable.Snapshot snapshot() {
+            return ((PieceTable) getContent()).snapshot();
+        }
+    }
+
+    // Tokenizer for JavaScript, TypeScript and JSON, one line at a time. The only state carried
+    // from one line to the next is "inside a block comment" or "inside a template string", so the
+    // state at each line start fits in a byte and a line can be lexed on its own given that state
+    static class JsLexer {
+        static final int JS = 0, TS = 1, JSON = 2;
+
+        // Line states
+        static final int CODE = 0, BLOCK_COMMENT = 1, TEMPLATE = 2;
+
+        // Token types
+        static final int KEYWORD = 1, LITERAL = 2, STRING = 3, NUMBER = 4, COMMENT = 5, REGEX = 6, PROPERTY = 7;
+
+        private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "async", "await", "break", "case", "catch", "class", "const", "continue", "debugger", "default",
+            "delete", "do", "else", "export", "extends", "finally", "for", "from", "function", "get", "if",
+            "import", "in", "instanceof", "let", "new", "of", "return", "set", "static", "super", "switch",
+            "this", "throw", "try", "typeof", "var", "void", "while", "with", "yield"));
+        private static final Set<String> TS_KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "any", "as", "asserts", "bigint", "boolean", "declare", "enum", "implements", "infer",
+            "interface", "is", "keyof", "module", "namespace", "never", "number", "object", "override",
+            "private", "protected", "public", "readonly", "satisfies", "string", "symbol", "type", "unique", "unknown"));
+        private static final Set<String> LITERALS = new HashSet<>(Arrays.asList(
+            "true", "false", "null", "undefined", "NaN", "Infinity"));
+        // After these a '/' starts a regular expression rather than a division
+        private static final Set<String> BEFORE_EXPRESSION = new HashSet<>(Arrays.asList(
+            "return", "typeof", "case", "do", "else", "in", "instanceof", "new", "delete", "void", "throw", "yield", "await", "of"));
+
+        interface Sink {
+            void token(int start, int end, int type);
+        }
+
+        // Language for a file name, -1 if it is not highlighted
+        static int languageFor(String name) {
+            String lower = name.toLowerCase();
+            if (lower.endsWith(".json")) return JSON;
+            if (lower.matches(".*\\.(ts|tsx|mts|cts)")) return TS;
+            if (lower.matches(".*\\.(js|jsx|mjs|cjs)")) return JS;
+            return -1;
+        }
+
+        // Lexes [start, end) - one line without its newline - reporting tokens to the sink (may be
+        // null when only the state is wanted). Returns the state at the start of the next line
+        static int lex(CharSequence text, int start, int end, int state, int language, Sink sink) {
+            int i = start;
+            if (state == BLOCK_COMMENT) {
+                int close = indexOf(text, "*/", i, end);
+                int stop = close < 0 ? end : close + 2;
+                emit(sink, i, stop, COMMENT);
+                if (close < 0) return BLOCK_COMMENT;
+                i = stop;
+            } else if (state == TEMPLATE) {
+                int close = closing(text, i, end, '`');
+                emit(sink, i, close < 0 ? end : close + 1, STRING);
+                if (close < 0) return TEMPLATE;
+                i = close + 1;
+            }
+
+            boolean regexAllowed = state != TEMPLATE;
+            while (i < end) {
+                char c = text.charAt(i);
+                char next = i + 1 < end ? text.charAt(i + 1) : 0;
+
+                if (c == ' ' || c == '\t' || c == '\r') {
+                    i++;
+                } else if (c == '/' && next == '/') {
+                    emit(sink, i, end, COMMENT);
+                    return CODE;
+                } else if (c == '/' && next == '*') {
+                    int close = indexOf(text, "*/", i + 2, end);
+                    emit(sink, i, close < 0 ? end : close + 2, COMMENT);
+                    if (close < 0) return BLOCK_COMMENT;
+                    i = close + 2;
+                } else if (c == '"' || c == '\'' || (c == '`' && language != JSON)) {
+                    int close = closing(text, i + 1, end, c);
+                    int stop = close < 0 ? end : close + 1;
+                    int type = STRING;
+                    if (language == JSON) {
+                        int after = stop;
+                        while (after < end && (text.charAt(after) == ' ' || text.charAt(after) == '\t')) after++;
+                        if (after < end && text.charAt(after) == ':') type = PROPERTY;
+                    }
+                    emit(sink, i, stop, type);
+                    if (close < 0 && c == '`') return TEMPLATE;
+                    i = stop;
+                    regexAllowed = false;
+                } else if (isDigit(c) || (c == '.' && isDigit(next))) {
+                    int stop = i + 1;
+                    while (stop < end) {
+                        char d = text.charAt(stop);
+                        if (Character.isLetterOrDigit(d) || d == '.' || d == '_') {
+                            stop++;
+                        } else if ((d == '+' || d == '-') && (text.charAt(stop - 1) == 'e' || text.charAt(stop - 1) == 'E')
+                                && !isHex(text, i, stop)) {
+                            stop++; // Exponent sign
+                        } else {
+                            break;
+                        }
+                    }
+                    emit(sink, i, stop, NUMBER);
+                    i = stop;
+                    regexAllowed = false;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int stop = i + 1;
+                    while (stop < end && Character.isJavaIdentifierPart(text.charAt(stop))) stop++;
+                    String word = text.subSequence(i, stop).toString();
+                    boolean member = i > start && text.charAt(i - 1) == '.'; // obj.default, obj.type
+                    if (LITERALS.contains(word)) {
+                        emit(sink, i, stop, LITERAL);
+                        regexAllowed = false;
+                    } else if (language != JSON && !member && (KEYWORDS.contains(word) || (language == TS && TS_KEYWORDS.contains(word)))) {
+                        emit(sink, i, stop, KEYWORD);
+                        regexAllowed = BEFORE_EXPRESSION.contains(word);
+                    } else {
+                        regexAllowed = false;
+                    }
+                    i = stop;
+                } else if (c == '/' && regexAllowed && language != JSON) {
+                    int close = regexEnd(text, i + 1, end);
+                    if (close < 0) {
+                        i++; // Not a regex after all - just a slash
+                    } else {
+                        int stop = close + 1;
+                        while (stop < end && Character.isLetter(text.charAt(stop))) stop++; // Flags
+                        emit(sink, i, stop, REGEX);
+                        i = stop;
+                        regexAllowed = false;
+                    }
+                } else {
+                    regexAllowed = c != ')' && c != ']' && c != '}';
+                    i++;
+                }
+            }
+            return CODE;
+        }
+
+        private static void emit(Sink sink, int start, int end, int type) {
+            if (sink != null && end > start) sink.token(start, end, type);
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isHex(CharSequence text, int start, int end) {
+            return end - start > 1 && text.charAt(start) == '0' && (text.charAt(start + 1) == 'x' || text.charAt(start + 1) == 'X');
+        }
+
+        private static int indexOf(CharSequence text, String what, int from, int end) {
+            for (int i = from; i + what.length() <= end; i++) {
+                if (text.charAt(i) == what.charAt(0) && text.charAt(i + 1) == what.charAt(1)) return i;
+            }
+            return -1;
+        }
+
+        // Index of the unescaped quote that closes a string, -1 if the line ends first
+        private static int closing(CharSequence text, int from, int end, char quote) {
+            for (int i = from; i < end; i++) {
+                char c = text.charAt(i);
+                if (c == '\\') i++;
+                else if (c == quote) return i;
+            }
+            return -1;
+        }
+
+        // Index of the '/' that ends a regex literal (slashes inside [...] do not count)
+        private static int regexEnd(CharSequence text, int from, int end) {
+            boolean inClass = false;
+            for (int i = from; i < end; i++) {
+                char c = text.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '[') inClass = true;
+                else if (c == ']') inClass = false;
+                else if (c == '/' && !inClass) return i > from ? i : -1;
+            }
+            return -1;
+        }
+    }
+
+    // Syntax colors for an editor on a PieceDocument. It keeps the lexer state at every line start;
+    // after an edit, lines are re-lexed on the cpu pool from a document snapshot, starting at the
+    // first damaged line and stopping as soon as the state at a line start after the change
+    // matches what it was before - usually on the next line, so a keystroke in a 20 MB file costs
+    // microseconds. Only the painted lines are tokenized, by the view, from those states
+    static class SyntaxHighlighter implements DocumentListener {
+        private static final int CHUNK_LINES = 50_000; // Per background task, so results come in as they go
+        private static final int CACHED_LINES = 1024; // Lines whose tokens are kept for painting
+        private static final Color[] COLORS = {
+            null,
+            new Color(86, 156, 214),  // KEYWORD
+            new Color(86, 156, 214),  // LITERAL
+            new Color(206, 145, 120), // STRING
+            new Color(181, 206, 168), // NUMBER
+            new Color(106, 153, 85),  // COMMENT
+            new Color(209, 105, 105), // REGEX
+            new Color(156, 220, 254)  // PROPERTY
+        };
+
+        private final JTextArea editor;
+        private final PieceDocument document;
+        private final int language;
+
+        // Touched on the EDT only
+        private byte[] states = new byte[16]; // State at the start of each line
+        private int lineCount;
+        private int dirtyFrom = Integer.MAX_VALUE; // First line whose start state may be wrong
+        private int dirtyTo = -1; // Last line that was edited - the states cannot converge before it
+        private int version;
+        private boolean running;
+        private final Segment line = new Segment();
+        private final Segment part = new Segment();
+        private int[] runs = new int[48];
+        private int runCount;
+        private final Map<Integer, int[]> tokens = new HashMap<>(); // Runs of painted lines, by line index
+
+        private SyntaxHighlighter(JTextArea editor, PieceDocument document, int language) {
+            this.editor = editor;
+            this.document = document;
+            this.language = language;
+        }
+
+        // Colors the editor if the file is JavaScript, TypeScript or JSON; returns null otherwise
+        static SyntaxHighlighter install(JTextArea editor, String fileName) {
+            int language = JsLexer.languageFor(fileName);
+            if (language < 0 || !(editor.getDocument() instanceof PieceDocument)) return null;
+
+            SyntaxHighlighter highlighter = new SyntaxHighlighter(editor, (PieceDocument) editor.getDocument(), language);
+            editor.putClientProperty(SyntaxHighlighter.class, highlighter);
+            editor.setUI(new CodeAreaUI());
+            editor.getDocument().addDocumentListener(highlighter);
+
+            highlighter.lineCount = editor.getDocument().getDefaultRootElement().getElementCount();
+            highlighter.states = new byte[Math.max(16, highlighter.lineCount)];
+            highlighter.dirtyFrom = 0;
+            highlighter.dirtyTo = highlighter.lineCount - 1;
+            highlighter.schedule();
+            return highlighter;
+        }
+
+        public void insertUpdate(DocumentEvent e) {
+            changed(e);
+        }
+
+        public void removeUpdate(DocumentEvent e) {
+            changed(e);
+        }
+
+        public void changedUpdate(DocumentEvent e) {
+        }
+
+        // Moves the states of the lines after the change along with them and marks the edited lines
+        private void changed(DocumentEvent e) {
+            version++;
+            Element root = document.getDefaultRootElement();
+            DocumentEvent.ElementChange change = e.getChange(root);
+            int first, last;
+            if (change != null) {
+                first = change.getIndex();
+                int delta = change.getChildrenAdded().length - change.getChildrenRemoved().length;
+                shift(first + 1, delta);
+                if (delta != 0) {
+                    int moved = first;
+                    tokens.keySet().removeIf(i -> i >= moved); // Lines after the change have other indexes now
+                }
+                last = first + change.getChildrenAdded().length - 1;
+                if (dirtyTo > first) dirtyTo = Math.max(first, dirtyTo + delta);
+            } else {
+                first = last = root.getElementIndex(e.getOffset());
+            }
+            for (int i = first; i <= last; i++) tokens.remove(i);
+            dirtyFrom = Math.min(dirtyFrom, first);
+            dirtyTo = Math.max(dirtyTo, last);
+            schedule();
+        }
+
+        private void shift(int from, int delta) {
+            if (delta > 0 && lineCount + delta > states.length) {
+                states = Arrays.copyOf(states, Math.max(lineCount + delta, states.length * 2));
+            }
+            if (delta != 0) {
+                int start = delta > 0 ? from : from - delta;
+                System.arraycopy(states, start, states, start + delta, lineCount - start);
+            }
+            lineCount += delta;
+        }
+
+        // Starts a background pass from the first dirty line, unless one is already running
+        private void schedule() {
+            if (running || dirtyFrom >= lineCount) return;
+            running = true;
+
+            int from = dirtyFrom, to = dirtyTo, started = version;
+            int offset = document.getDefaultRootElement().getElement(from).getStartOffset();
+            byte[] before = Arrays.copyOfRange(states, from, lineCount);
+            PieceTable.Snapshot text = document.snapshot();
+
+            Workers.cpu().execute(() -> {
+                byte[] found = new byte[Math.min(CHUNK_LINES, before.length)];
+                int count = 0;
+                boolean converged = false;
+                int state = before[0];
+                LineWindow window = new LineWindow(text);
+                int position = offset;
+                while (true) {
+                    int end = window.lineEnd(position);
+                    state = JsLexer.lex(window.segment, position - window.start, end - window.start, state, language, null);
+                    int next = from + count + 1;
+                    if (next >= from + before.length) {
+                        converged = true; // Last line
+                        break;
+                    }
+                    if (next > to && state == before[next - from]) {
+                        converged = true; // The rest was lexed from this same state before
+                        break;
+                    }
+                    if (count == found.length) break;
+                    found[count++] = (byte) state;
+                    position = end + 1;
+                }
+                int lines = count;
+                boolean done = converged;
+                SwingUtilities.invokeLater(() -> finished(started, from, found, lines, done));
+            });
+        }
+
+        private void finished(int started, int from, byte[] found, int count, boolean converged) {
+            running = false;
+            if (started == version) {
+                System.arraycopy(found, 0, states, from + 1, count);
+                tokens.keySet().removeIf(i -> i > from && i <= from + count); // Their start states changed
+                if (converged) {
+                    dirtyFrom = Integer.MAX_VALUE;
+                    dirtyTo = -1;
+                } else {
+                    dirtyFrom = from + count;
+                }
+                editor.repaint();
+            }
+            schedule(); // Edited meanwhile (the result is thrown away), or more to do
+        }
+
+        // Paints document text [p0, p1) - part of one line - token by token. A line is lexed once
+        // and its tokens reused until it (or its start state) changes, so painting a piece of a long
+        // line costs only that piece
+        float draw(PlainView view, Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+            Element root = document.getDefaultRootElement();
+            int index = root.getElementIndex(p0);
+            int lineStart = root.getElement(index).getStartOffset();
+            int[] lineRuns = tokens(index);
+            document.getText(p0, p1 - p0, line);
+
+            Color plain = editor.getForeground();
+            int from = p0 - lineStart, position = from, stop = p1 - lineStart;
+            for (int r = 0; r < lineRuns.length && position < stop; r += 3) {
+                int start = lineRuns[r], end = lineRuns[r + 1];
+                if (end <= position) continue;
+                if (start > position) x = drawPart(view, g, x, y, lineStart, from, position, Math.min(start, stop), plain);
+                position = Math.max(position, start);
+                if (position < stop) x = drawPart(view, g, x, y, lineStart, from, position, Math.min(end, stop), COLORS[lineRuns[r + 2]]);
+                position = Math.min(end, stop);
+            }
+            if (position < stop) x = drawPart(view, g, x, y, lineStart, from, position, stop, plain);
+            return x;
+        }
+
+        // Start, end and type of each token of a line, relative to its start
+        private int[] tokens(int index) throws BadLocationException {
+            int[] cached = tokens.get(index);
+            if (cached != null) return cached;
+
+            Element element = document.getDefaultRootElement().getElement(index);
+            int lineStart = element.getStartOffset();
+            int lineEnd = Math.min(element.getEndOffset() - 1, document.getLength());
+            document.getText(lineStart, lineEnd - lineStart, line);
+            runCount = 0;
+            int state = index < lineCount ? states[index] : JsLexer.CODE;
+            JsLexer.lex(line, 0, line.count, state, language, this::addRun);
+
+            int[] lineRuns = Arrays.copyOf(runs, 3 * runCount);
+            if (tokens.size() >= CACHED_LINES) tokens.clear();
+            tokens.put(index, lineRuns);
+            return lineRuns;
+        }
+
+        private void addRun(int start, int end, int type) {
+            if (3 * runCount + 3 > runs.length) runs = Arrays.copyOf(runs, runs.length * 2);
+            runs[3 * runCount] = start;
+            runs[3 * runCount + 1] = end;
+            runs[3 * runCount + 2] = type;
+            runCount++;
+        }
+
+        // Paints [from, to) of the line; `line` holds its text from `fetched` on
+        private float drawPart(PlainView view, Graphics2D g, float x, float y, int lineStart, int fetched, int from, int to, Color color) {
+            if (to <= from) return x;
+            part.array = line.array;
+            part.offset = line.offset + from - fetched;
+            part.count = to - from;
+            g.setColor(color);
+            return Utilities.drawTabbedText(part, x, y, g, view, lineStart + from);
+        }
+
+        // Sequential line access to a snapshot through a reused buffer, instead of charAt per character
+        private static class LineWindow {
+            private final PieceTable.Snapshot text;
+            final Segment segment = new Segment();
+            int start = -1;
+            private char[] buffer = new char[64 * 1024];
+
+            LineWindow(PieceTable.Snapshot text) {
+                this.text = text;
+            }
+
+            // End of the line starting at `from` (its newline, or the end of the text); the whole
+            // line is in the window afterwards
+            int lineEnd(int from) {
+                while (true) {
+                    if (start < 0 || from < start || from >= start + segment.count) load(from);
+                    for (int i = from - start; i < segment.count; i++) {
+                        if (buffer[i] == '\n') return start + i;
+                    }
+                    if (start + segment.count >= text.length()) return text.length();
+                    if (from == start) buffer = new char[buffer.length * 2]; // Line longer than the window
+                    load(from);
+                }
+            }
+
+            private void load(int from) {
+                int count = Math.min(buffer.length, text.length() - from);
+                text.getChars(from, from + count, buffer, 0);
+                start = from;
+                segment.array = buffer;
+                segment.offset = 0;
+                segment.count = count;
+            }
+        }
+
+        // Text area UI whose lines are painted by CodeView
+        private static class CodeAreaUI extends javax.swing.plaf.basic.BasicTextAreaUI {
+            @Override
+            public View create(Element element) {
+                return new CodeView(element);
+            }
+        }
+
+        private static class CodeView extends PlainView {
+            CodeView(Element element) {
+                super(element);
+            }
+
+            @Override
+            protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+                JTextComponent host = (JTextComponent) getContainer();
+                SyntaxHighlighter highlighter = (SyntaxHighlighter) host.getClientProperty(SyntaxHighlighter.class);
+                if (highlighter == null || !host.isEnabled()) return super.drawUnselectedText(g, x, y, p0, p1);
+                return highlighter.draw(this, g, x, y, p0, p1);
+            }
+        }
+    }
+
+    // Writes editor text to disk on the io executor. A file is written only if its text differs
+    // from what was last loaded or saved (same snapshot version, or failing that the same SHA-256,
+    // e.g. after undoing every edit), and then into a temp file next to it that is fsynced and
+    // renamed over the original - a crash leaves the old file or the new one, never half of one.
+    // Saves of one file run in order. A save that has not started yet writes the newest text asked
+    // for by then, and everyone who asked for it is told when that write is done; different files
+    // are saved in parallel
+    static class FileSaver {
+        private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+        private static final class Entry {
+            PieceTable.Snapshot saved; // What is on disk, as far as we know
+            byte[] savedHash; // Of saved, computed when first needed
+            PieceTable.Snapshot latest; // Newest text asked to be saved
+            CompletableFuture<Boolean> queued; // Write that has not started yet, if any
+            CompletableFuture<Boolean> tail = CompletableFuture.completedFuture(false); // Newest write
+            BasicFileAttributes disk; // Of the file when it was read or last written by us
+        }
+
+        // The text as it was read, and the file's attributes from just before reading it - saving
+        // it unchanged then costs nothing
+        void opened(Path file, PieceTable.Snapshot text, BasicFileAttributes disk) {
+            Entry entry = new Entry();
+            entry.saved = text;
+            entry.disk = disk;
+            entries.put(key(file), entry);
+        }
+
+        // Size and modification time of the file as of the last read or write through here, so
+        // a change made by someone else since can be told apart. Null if not known
+        BasicFileAttributes diskAttributes(Path file) {
+            Entry entry = entries.get(key(file));
+            if (entry == null) return null;
+            synchronized (entry) {
+                return entry.disk;
+            }
+        }
+
+        void closed(Path file) {
+            entries.remove(key(file));
+        }
+
+        // True if the text is the one last loaded or saved, with no save of it still pending.
+        // Compares versions, so an edit that was undone still counts as a change
+        boolean isSaved(Path file, PieceTable.Snapshot text) {
+            Entry entry = entries.get(key(file));
+            if (entry == null) return false;
+            synchronized (entry) {
+                return text.isSameVersion(entry.saved) && (entry.latest == null || entry.latest == entry.saved);
+            }
+        }
+
+        // Completes with true once the text (or newer text) is on disk, false if there was nothing
+        // to write, and exceptionally if the write failed
+        CompletableFuture<Boolean> save(Path file, PieceTable.Snapshot text) {
+            Entry entry = entries.computeIfAbsent(key(file), k -> new Entry());
+            synchronized (entry) {
+                if (entry.latest != null && text.isSameVersion(entry.latest)) {
+                    return entry.tail.thenApply(written -> false); // Already asked for - shares that write's outcome
+                }
+                if (entry.latest == null && text.isSameVersion(entry.saved)) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                entry.latest = text;
+                if (entry.queued != null) return entry.queued; // Not started - it will write this text instead
+
+                CompletableFuture<Boolean> queued = new CompletableFuture<>();
+                entry.tail.handle((written, error) -> null).thenRunAsync(() -> write(file, entry, queued), Workers.io());
+                entry.queued = queued;
+                entry.tail = queued;
+                return queued;
+            }
+        }
+
+        // Waits (at most the given time) for queued saves, so closing the IDE does not cut them off
+        void awaitPending(long millis) {
+            CompletableFuture<?>[] pending = entries.values().stream().map(entry -> entry.tail).toArray(CompletableFuture[]::new);
+            try {
+                CompletableFuture.allOf(pending).get(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                // Failures were reported when they happened
+            }
+        }
+
+        private void write(Path file, Entry entry, CompletableFuture<Boolean> done) {
+            PieceTable.Snapshot text;
+            PieceTable.Snapshot saved;
+            synchronized (entry) {
+                entry.queued = null; // Saves asked for from now on queue a new write
+                text = entry.latest;
+                saved = entry.saved;
+            }
+            try {
+                byte[] hash = hash(text);
+                if (entry.savedHash == null && saved != null) entry.savedHash = hash(saved);
+                boolean written = !Arrays.equals(hash, entry.savedHash);
+                BasicFileAttributes disk = written ? writeAtomically(file, text) : null;
+                synchronized (entry) {
+                    entry.saved = text;
+                    entry.savedHash = hash;
+                    if (written) entry.disk = disk;
+                }
+                done.complete(written);
+            } catch (IOException | RuntimeException e) {
+                synchronized (entry) {
+                    if (entry.latest == text) entry.latest = null; // Lets the same text be saved again
+                }
+                done.completeExceptionally(e);
+            }
+        }
+
+        // Returns the attributes of the new file, read right after it replaced the old one
+        private static BasicFileAttributes writeAtomically(Path file, PieceTable.Snapshot text) throws IOException {
+            Path target = Files.isSymbolicLink(file) ? file.toRealPath() : file; // Replace the file, not the link
+            Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                     Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 64 * 1024)) {
+                    text.writeTo(out);
+                    out.flush();
+                    channel.force(true); // On disk before the rename makes it the file
+                }
+                try {
+                    if (Files.exists(target)) Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+                } catch (UnsupportedOperationException e) {
+                    // Not a POSIX file system - the temp file already has the usual permissions
+                }
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                try (FileChannel folder = FileChannel.open(target.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                    folder.force(true); // Makes the rename itself durable
+                } catch (IOException e) {
+                    // Folders cannot be opened on Windows - the rename is atomic there anyway
+                }
+                return Files.readAttributes(target, BasicFileAttributes.class);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        private static byte[] hash(PieceTable.Snapshot text) throws IOException {
+            try {
+                java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new java.security.DigestOutputStream(OutputStream.nullOutputStream(), digest), StandardCharsets.UTF_8), 64 * 1024)) {
+                    text.writeTo(out);
+                }
+                return digest.digest();
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // Every JRE has SHA-256
+            }
+        }
+
+        private static Path key(Path file) {
+            return file.toAbsolutePath().normalize();
+        }
+    }
+
+    // Unsaved edits of one open file, appended to ~/.nodejs-ide/journal so that a crash or an
+    // OutOfMemoryError does not lose them. Each insert and remove is queued on the EDT as it happens
+    // (its offset and the inserted characters, never the whole text) and a batch is appended on the
+    // io executor a moment later. Once the journal passes nodeide.journal.compact bytes (default
+    // 4 MB), and after every save, it is rewritten as the current text in a single record, taken
+    // from a snapshot off the EDT. On the next launch recover() replays what was left behind onto
+    // the files as they are on disk. Nothing is fsynced - the OS still has the data if only the
+    // JVM dies.
+    // Each process keeps its journals in a folder of its own that it holds a lock on, so several
+    // IDEs (or an IDE and a runner) can share DIR: only folders whose lock is free belong to a
+    // process that is gone, and only their journals for files of the project being opened are taken
+    static class EditJournal implements DocumentListener {
+        static final long COMPACT_AT = Long.getLong("nodeide.journal.compact", 4L << 20);
+        static final Path DIR = Paths.get(System.getProperty("user.home"), ".nodejs-ide", "journal");
+        private static final String LOCK = "owner.lock";
+        private static volatile Path ownFolder; // Created on first use
+        private static FileChannel ownLock; // Held (never closed) until the process exits
+        private static final int MAGIC = 0x4E4A454A; // "NJEJ"
+        private static final int VERSION = 1;
+        private static final byte INSERT = 1, REMOVE = 2, TEXT = 3;
+        private static final int FLUSH_DELAY_MS = 200;
+
+        // One queued change. TEXT carries the whole text as a snapshot (compaction); a TEXT with no
+        // snapshot means the text is what is on disk, so the journal can go
+        private static final class Op {
+            final byte type;
+            final int offset;
+            final String text; // INSERT
+            final int length; // REMOVE
+            final PieceTable.Snapshot snapshot; // TEXT
+            final BasicFileAttributes disk; // TEXT after a save: the file as it is on disk now
+
+            Op(byte type, int offset, String text, int length, PieceTable.Snapshot snapshot) {
+                this(type, offset, text, length, snapshot, null);
+            }
+
+            Op(byte type, int offset, String text, int length, PieceTable.Snapshot snapshot, BasicFileAttributes disk) {
+                this.type = type;
+                this.offset = offset;
+                this.text = text;
+                this.length = length;
+                this.snapshot = snapshot;
+                this.disk = disk;
+            }
+        }
+
+        // Edits found by recover(), to be replayed once the file is loaded again
+        static final class Recovered {
+            final Path file;
+            private final java.util.List<Op> ops;
+
+            Recovered(Path file, java.util.List<Op> ops) {
+                this.file = file;
+                this.ops = ops;
+            }
+
+            int edits() {
+                return ops.size();
+            }
+
+            void replay(javax.swing.text.Document document) throws BadLocationException {
+                for (Op op : ops) {
+                    if (op.type == INSERT) {
+                        document.insertString(op.offset, op.text, null);
+                    } else if (op.type == REMOVE) {
+                        document.remove(op.offset, op.length);
+                    } else {
+                        document.remove(0, document.getLength());
+                        document.insertString(0, op.text, null);
+                    }
+                }
+            }
         }
-        
-        public File getFile() {
-            return file;
+
+        private final Path file;
+        private Path journal; // In ownFolder(), set by the writer on first use. Guarded by writeLock
+        private final PieceDocument document;
+        private final Object writeLock = new Object();
+        private final java.util.List<Op> unwritten = new ArrayList<>(); // Guarded by this
+        private boolean flushScheduled; // Guarded by this
+        private boolean closed; // Guarded by this
+        private volatile boolean compactWanted; // Set by the writer, acted on by the next edit
+        private long size = -1; // Bytes in the journal file, -1 while there is none. Writer only
+        private BasicFileAttributes disk; // The file the edits apply to, as it was on disk. Writer only
+
+        // Starts journaling the document, read from the file when it had the given attributes
+        // (taken before the read, not now - the file may have changed since). If the document was
+        // just replayed from a journal, pass true so the result is written out right away
+        EditJournal(Path file, PieceDocument document, BasicFileAttributes disk, boolean recovered) {
+            this.file = file.toAbsolutePath().normalize();
+            this.document = document;
+            this.disk = disk;
+            if (recovered) queue(new Op(TEXT, 0, null, 0, document.snapshot()));
+            document.addDocumentListener(this);
         }
-        
-        public boolean isDirectory() {
-            return isDirectory;
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            try {
+                queue(new Op(INSERT, e.getOffset(), document.getText(e.getOffset(), e.getLength()), 0, null));
+            } catch (BadLocationException ex) {
+                compactWanted = true; // Cannot happen on the EDT - but a full rewrite would repair it
+            }
+            compactIfWanted();
         }
-        
+
         @Override
-        public String toString() {
-            return name; // This ensures only the filename is displayed in the tree
+        public void removeUpdate(DocumentEvent e) {
+            queue(new Op(REMOVE, e.getOffset(), null, e.getLength(), null));
+            compactIfWanted();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Attributes only - plain text has none
+        }
+
+        // The given text reached the disk, which now has the given attributes. Unless there were
+        // edits since, the journal is not needed
+        void saved(PieceTable.Snapshot text, BasicFileAttributes disk) {
+            PieceTable.Snapshot now = document.snapshot();
+            queue(new Op(TEXT, 0, null, 0, now.isSameVersion(text) ? null : now, disk));
+        }
+
+        // The tab is closing (or the IDE is, normally) - its unsaved edits are given up on purpose
+        void discard() {
+            document.removeDocumentListener(this);
+            synchronized (this) {
+                closed = true;
+                unwritten.clear();
+            }
+            synchronized (writeLock) {
+                try {
+                    if (journal != null) Files.deleteIfExists(journal);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void compactIfWanted() {
+            if (!compactWanted) return;
+            compactWanted = false;
+            queue(new Op(TEXT, 0, null, 0, document.snapshot()));
+        }
+
+        private void queue(Op op) {
+            synchronized (this) {
+                if (closed) return;
+                unwritten.add(op);
+                if (flushScheduled) return;
+                flushScheduled = true;
+            }
+            // Typing a word costs one append, not one per key
+            Workers.timer().schedule(() -> Workers.io().execute(this::flush), FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private void flush() {
+            synchronized (writeLock) { // Taking the batch under it keeps batches in order
+                java.util.List<Op> batch;
+                synchronized (this) {
+                    flushScheduled = false;
+                    if (closed || unwritten.isEmpty()) return;
+                    batch = new ArrayList<>(unwritten);
+                    unwritten.clear();
+                }
+                try {
+                    // Only the last TEXT matters - everything before it is replaced by it
+                    int start = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (batch.get(i).type == TEXT) start = i;
+                    }
+                    Op first = batch.get(start);
+                    if (first.type == TEXT) {
+                        compactWanted = false; // Asked for before this - done now
+                        if (first.disk != null) disk = first.disk;
+                        if (first.snapshot == null) {
+                            if (journal != null) Files.deleteIfExists(journal);
+                            size = -1;
+                        } else {
+                            rewrite(first.snapshot);
+                        }
+                        start++;
+                    }
+                    if (start < batch.size()) append(batch.subList(start, batch.size()));
+                    if (size > COMPACT_AT) compactWanted = true;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    compactWanted = true; // The journal may be missing edits now - rewrite it whole
+                }
+            }
+        }
+
+        private void append(java.util.List<Op> ops) throws IOException {
+            boolean created = size < 0;
+            if (journal == null) journal = journalOf(file);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(created
+                    ? Files.newOutputStream(journal, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                    : Files.newOutputStream(journal, StandardOpenOption.APPEND)))) {
+                if (created) writeHeader(out);
+                for (Op op : ops) {
+                    out.writeByte(op.type);
+                    out.writeInt(op.offset);
+                    if (op.type == INSERT) {
+                        out.writeInt(op.text.length());
+                        out.writeChars(op.text);
+                    } else {
+                        out.writeInt(op.length);
+                    }
+                }
+                size = (created ? 0 : size) + out.size();
+            }
+        }
+
+        // The whole text as one record, written next to the journal and renamed over it
+        private void rewrite(PieceTable.Snapshot text) throws IOException {
+            if (journal == null) journal = journalOf(file);
+            Path temp = journal.resolveSibling(journal.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                writeHeader(out);
+                out.writeByte(TEXT);
+                out.writeInt(0);
+                out.writeInt(text.length());
+                char[] chunk = new char[16 * 1024];
+                for (int from = 0; from < text.length(); from += chunk.length) {
+                    int to = Math.min(text.length(), from + chunk.length);
+                    text.getChars(from, to, chunk, 0);
+                    for (int i = 0; i < to - from; i++) out.writeChar(chunk[i]);
+                }
+                out.flush();
+                size = out.size();
+            }
+            Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // The file and how it looked on disk when the text the edits start from was read or saved.
+        // Replaying edits onto a file that changed since would scramble it, so recover() checks
+        // these first. Unknown attributes are written as -1, which no file matches
+        private void writeHeader(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(file.toString());
+            out.writeLong(disk != null ? disk.size() : -1);
+            out.writeLong(disk != null ? disk.lastModifiedTime().toMillis() : -1);
+        }
+
+        // Takes over the journals of files under the project that were left by processes that
+        // did not close normally: they move into this process's folder, where the EditJournal of
+        // the reopened file then replaces them. Ones that cannot be replayed (file gone or changed
+        // since, unreadable journal) are deleted and reported. Other projects' journals stay put
+        static java.util.List<Recovered> recover(Path project, Consumer<String> problems) {
+            java.util.List<Recovered> found = new ArrayList<>();
+            if (!Files.isDirectory(DIR)) return found;
+            Path root = project.toAbsolutePath().normalize();
+            try (DirectoryStream<Path> owners = Files.newDirectoryStream(DIR, Files::isDirectory)) {
+                for (Path owner : owners) {
+                    if (owner.equals(ownFolder)) continue;
+                    boolean emptied;
+                    try (FileChannel channel = FileChannel.open(owner.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                         java.nio.channels.FileLock lock = channel.tryLock()) {
+                        if (lock == null) continue; // Its process is still running
+                        emptied = adopt(owner, root, found, problems);
+                    } catch (java.nio.channels.OverlappingFileLockException e) {
+                        continue; // Locked from within this JVM
+                    }
+                    if (emptied) {
+                        try {
+                            Files.deleteIfExists(owner.resolve(LOCK));
+                            Files.deleteIfExists(owner);
+                        } catch (IOException e) {
+                            // Someone else is cleaning up too - harmless
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return found;
+        }
+
+        // Moves the owner's journals for files under the project into this process's folder.
+        // Returns true if the owner has no journals left
+        private static boolean adopt(Path owner, Path project, java.util.List<Recovered> found, Consumer<String> problems) throws IOException {
+            boolean emptied = true;
+            try (DirectoryStream<Path> journals = Files.newDirectoryStream(owner, "*.journal")) {
+                for (Path journal : journals) {
+                    Path file = fileOf(journal);
+                    if (file != null && !file.startsWith(project)) {
+                        emptied = false; // Recovered when its own project is opened
+                        continue;
+                    }
+                    Recovered recovered = file != null ? read(journal, problems) : null;
+                    if (recovered == null) {
+                        Files.deleteIfExists(journal);
+                        continue;
+                    }
+                    Files.move(journal, ownFolder().resolve(journal.getFileName()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    found.add(recovered);
+                }
+            }
+            return emptied;
+        }
+
+        // The file a journal is for, from its header - null if that can't be read
+        private static Path fileOf(Path journal) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+                return Paths.get(in.readUTF()).toAbsolutePath().normalize();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static Recovered read(Path journal, Consumer<String> problems) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal), 64 * 1024))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+                Path file = Paths.get(in.readUTF());
+                long size = in.readLong();
+                long modified = in.readLong();
+
+                java.util.List<Op> ops = new ArrayList<>();
+                try {
+                    while (true) {
+                        byte type = in.readByte();
+                        int offset = in.readInt();
+                        int length = in.readInt();
+                        if (type == REMOVE) {
+                            ops.add(new Op(REMOVE, offset, null, length, null));
+                        } else {
+                            char[] text = new char[length];
+                            for (int i = 0; i < length; i++) text[i] = in.readChar();
+                            ops.add(new Op(type, offset, new String(text), 0, null));
+                        }
+                    }
+                } catch (EOFException e) {
+                    // End of the journal, or a record cut short by the crash - the ones before it are whole
+                }
+
+                boolean replacesText = !ops.isEmpty() && ops.get(0).type == TEXT;
+                if (!Files.isRegularFile(file)) {
+                    problems.accept(file + " no longer exists");
+                    return null;
+                }
+                if (!replacesText && (Files.size(file) != size || Files.getLastModifiedTime(file).toMillis() != modified)) {
+                    problems.accept(file.getFileName() + " was changed on disk since");
+                    return null;
+                }
+                return ops.isEmpty() ? null : new Recovered(file, ops);
+            } catch (IOException e) {
+                problems.accept(journal.getFileName() + " could not be read: " + e.getMessage());
+                return null;
+            }
+        }
+
+        private static Path journalOf(Path file) throws IOException {
+            return ownFolder().resolve(file.getFileName() + "-" + UUID.nameUUIDFromBytes(file.toString().getBytes(StandardCharsets.UTF_8)) + ".journal");
+        }
+
+        // This process's folder under DIR, locked for as long as the process lives. The name has
+        // the start time in it too, so a later process that gets the same pid can't mistake it
+        private static synchronized Path ownFolder() throws IOException {
+            if (ownFolder == null) {
+                Path folder = DIR.resolve(ProcessHandle.current().pid() + "-" + Long.toString(System.currentTimeMillis(), 36));
+                Files.createDirectories(folder);
+                FileChannel channel = FileChannel.open(folder.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if (channel.tryLock() == null) {
+                    channel.close();
+                    throw new IOException("Journal folder " + folder + " is locked by another process");
+                }
+                ownLock = channel;
+                ownFolder = folder;
+            }
+            return ownFolder;
+        }
+    }
+
+    // Placeholder tab for a file that is being read on the io executor, with progress and a Cancel
+    // button. The text goes into a new document there as well, so the EDT only has to wrap it in an
+    // editor. load() completes with null for files at or above HugeFileViewer.THRESHOLD (those are
+    // mapped, not read) and is cancelled by the button or by closing the tab
+    static class FileLoader extends JPanel {
+        private static final int CHUNK = 256 * 1024;
+
+        private final File file;
+        private final JProgressBar progress = new JProgressBar(0, 1000);
+        private final CompletableFuture<javax.swing.text.Document> result = new CompletableFuture<>();
+        private volatile BasicFileAttributes diskAttributes;
+
+        FileLoader(File file) {
+            super(new GridBagLayout());
+            this.file = file;
+            setBackground(new Color(30, 30, 30));
+
+            JLabel label = new JLabel("Loading " + file.getName() + "...");
+            label.setForeground(new Color(200, 200, 200));
+            JButton cancel = new JButton("Cancel");
+            cancel.addActionListener(e -> cancel());
+            progress.setPreferredSize(new Dimension(260, 14));
+
+            JPanel box = new JPanel(new BorderLayout(0, 8));
+            box.setOpaque(false);
+            box.add(label, BorderLayout.NORTH);
+            box.add(progress, BorderLayout.CENTER);
+            box.add(cancel, BorderLayout.SOUTH);
+            add(box);
+        }
+
+        CompletableFuture<javax.swing.text.Document> load() {
+            Workers.io().execute(this::read);
+            return result;
+        }
+
+        void cancel() {
+            result.cancel(false);
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        // Size and modification time of the file just before it was read; null until then
+        BasicFileAttributes getDiskAttributes() {
+            return diskAttributes;
+        }
+
+        private void read() {
+            try {
+                // Before reading, so a change made during the read shows up as a mismatch later
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                diskAttributes = attributes;
+                long length = attributes.size();
+                if (length >= HugeFileViewer.THRESHOLD) {
+                    result.complete(null);
+                    return;
+                }
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) length);
+                try (InputStream in = Files.newInputStream(file.toPath())) {
+                    byte[] chunk = new byte[CHUNK];
+                    long shown = System.nanoTime();
+                    int count;
+                    while ((count = in.read(chunk)) > 0) {
+                        if (result.isDone()) return; // Cancelled - stop reading
+                        bytes.write(chunk, 0, count);
+                        if (System.nanoTime() - shown > 100_000_000L) {
+                            shown = System.nanoTime();
+                            int value = (int) Math.min(1000, bytes.size() * 1000L / Math.max(1, length));
+                            SwingUtilities.invokeLater(() -> progress.setValue(value));
+                        }
+                    }
+                }
+
+                // Not shown anywhere yet, so filling it off the EDT is safe
+                PieceDocument document = new PieceDocument();
+                document.insertString(0, bytes.toString(StandardCharsets.UTF_8), null);
+                result.complete(document);
+            } catch (IOException | BadLocationException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Read-only view of a file too big for a JTextArea (nodeide.viewer.threshold bytes and up,
+    // default 20 MB). The file is memory-mapped instead of read, a background pass records where
+    // every INDEX_STEP-th row starts, and painting decodes only the rows on screen - the heap holds
+    // the index and one page of text whatever the file size. Lines longer than ROW_BYTES wrap
+    // into several rows so a minified bundle does not become one giant string
+    static class HugeFileViewer extends JPanel {
+        static final long THRESHOLD = Long.getLong("nodeide.viewer.threshold", 20L << 20);
+        private static final int INDEX_STEP = 1024;
+        private static final int ROW_BYTES = 8192;
+        private static final int SEGMENT_BITS = 30; // 1 GB per mapping - one buffer cannot exceed 2 GB
+        private static final int TAB_SIZE = 2; // Same as the editors
+        private static final int PADDING = 4;
+
+        private final File file;
+        private final long size;
+        private volatile MappedByteBuffer[] segments;
+
+        // Offset and line (0-based) of every INDEX_STEP-th row. Entries below `indexed` are final;
+        // the arrays are swapped for bigger ones before `indexed` moves past their old length
+        private long[] offsets = new long[256];
+        private long[] lineNumbers = new long[256];
+        private volatile int indexed;
+        private volatile long rows = 1;
+        private volatile long lines = 1;
+        private volatile boolean indexDone;
+        private final CompletableFuture<Void> indexing;
+        private final AtomicInteger searches = new AtomicInteger(); // Bumped to cancel the running search
+        private volatile boolean closed;
+
+        private final Page page = new Page();
+        private final JScrollBar vertical = new JScrollBar(JScrollBar.VERTICAL);
+        private final JScrollBar horizontal = new JScrollBar(JScrollBar.HORIZONTAL);
+        private final JLabel info = new JLabel();
+        private final JLabel status = new JLabel();
+        private final JTextField lineField = new JTextField(8);
+        private final JTextField findField = new JTextField(18);
+        private long rowsPerUnit = 1; // Scroll bars count in ints, files can have more rows than that
+
+        // Current place in the file and what is highlighted
+        private long topRow;
+        private long selectedRow = -1;
+        private long matchOffset = -1;
+        private int matchColumns;
+
+        HugeFileViewer(File file) throws IOException {
+            super(new BorderLayout());
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                size = channel.size();
+                MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((size >>> SEGMENT_BITS) + 1)];
+                for (int i = 0; i < mapped.length; i++) {
+                    long start = (long) i << SEGMENT_BITS;
+                    mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_BITS, size - start));
+                }
+                segments = mapped; // Stays valid after the channel is closed
+            }
+            indexed = 1; // Row 0 starts at offset 0 on line 0
+
+            JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+            toolbar.add(info);
+            toolbar.add(new JLabel("  Line:"));
+            toolbar.add(lineField);
+            toolbar.add(new JLabel("Find:"));
+            toolbar.add(findField);
+            toolbar.add(status);
+            lineField.addActionListener(e -> goToLine());
+            findField.addActionListener(e -> findNext());
+
+            JPanel view = new JPanel(new BorderLayout());
+            view.add(page, BorderLayout.CENTER);
+            view.add(vertical, BorderLayout.EAST);
+            view.add(horizontal, BorderLayout.SOUTH);
+            add(toolbar, BorderLayout.NORTH);
+            add(view, BorderLayout.CENTER);
+
+            vertical.addAdjustmentListener(e -> {
+                topRow = Math.min(rows - 1, (long) e.getValue() * rowsPerUnit);
+                page.repaint();
+            });
+            horizontal.addAdjustmentListener(e -> page.repaint());
+            page.addMouseWheelListener(e -> scrollTo(topRow + e.getWheelRotation() * 3L));
+            page.addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    updateScrollBars();
+                }
+            });
+
+            InputMap keys = getInputMap(WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+            keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_G, InputEvent.CTRL_DOWN_MASK), "goToLine");
+            keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK), "find");
+            getActionMap().put("goToLine", keyAction(lineField::requestFocusInWindow));
+            getActionMap().put("find", keyAction(findField::requestFocusInWindow));
+
+            updateInfo();
+            indexing = CompletableFuture.runAsync(this::index, Workers.io());
+        }
+
+        // Drops the mapping so the file can be deleted or replaced (the memory goes with the next GC)
+        void close() {
+            closed = true;
+            searches.incrementAndGet();
+            segments = null;
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        // One pass over the file on a background thread, publishing progress as it goes
+        private void index() {
+            long offset = 0, row = 0, line = 0;
+            long published = System.nanoTime();
+            try {
+                while (offset < size && !closed) {
+                    if (row % INDEX_STEP == 0 && row > 0) addEntry(offset, line);
+                    long next = nextRow(offset);
+                    if (byteAt(next - 1) == '\n') line++;
+                    offset = next;
+                    row++;
+                    if ((row & 0xFFF) == 0 && System.nanoTime() - published > 200_000_000L) {
+                        published = System.nanoTime();
+                        rows = row;
+                        lines = line + 1;
+                        SwingUtilities.invokeLater(this::indexProgress);
+                    }
+                }
+            } catch (InternalError | NullPointerException e) {
+                return; // File truncated under the mapping, or closed (segments gone)
+            }
+            rows = Math.max(1, row);
+            lines = line + 1;
+            indexDone = true;
+            SwingUtilities.invokeLater(this::indexProgress);
+        }
+
+        private void addEntry(long offset, long line) {
+            int n = indexed;
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, n * 2);
+            }
+            offsets[n] = offset;
+            lineNumbers[n] = line;
+            indexed = n + 1;
+        }
+
+        private void indexProgress() {
+            updateInfo();
+            updateScrollBars();
+            page.repaint();
+        }
+
+        private void updateInfo() {
+            String lineCount = String.format("%,d lines", lines) + (indexDone ? "" : " (indexing...)");
+            info.setText(file.getName() + " - " + String.format("%.1f MB", size / (1024.0 * 1024)) + ", " + lineCount + ", read-only");
+        }
+
+        private void updateScrollBars() {
+            rowsPerUnit = Math.max(1, rows / (Integer.MAX_VALUE / 2));
+            int visible = Math.max(1, page.visibleRows());
+            int max = (int) ((rows - 1) / rowsPerUnit) + visible;
+            vertical.setValues((int) (topRow / rowsPerUnit), visible, 0, max);
+            vertical.setBlockIncrement(visible);
+            int columns = Math.max(1, page.getWidth() / Math.max(1, page.charWidth));
+            horizontal.setValues(Math.min(horizontal.getValue(), page.widest), columns, 0, Math.max(columns, page.widest + 1));
+            horizontal.setBlockIncrement(columns);
+        }
+
+        private void scrollTo(long row) {
+            topRow = Math.max(0, Math.min(rows - 1, row));
+            vertical.setValue((int) (topRow / rowsPerUnit));
+            page.repaint();
+        }
+
+        private void goToLine() {
+            try {
+                long line = Long.parseLong(lineField.getText().trim().replace(",", "")) - 1;
+                if (line < 0 || line >= lines) {
+                    status.setText("No line " + (line + 1) + (indexDone ? "" : " yet"));
+                    return;
+                }
+                Position position = seekLine(line);
+                selectedRow = position.row;
+                matchOffset = -1;
+                scrollTo(position.row - page.visibleRows() / 3);
+                status.setText(" ");
+                page.requestFocusInWindow();
+            } catch (NumberFormatException e) {
+                status.setText("Not a line number");
+            }
+        }
+
+        // Searches the raw bytes from just after the last match (or the top of the page) to the end,
+        // then from the start. Runs in the background; typing a new search cancels the old one
+        private void findNext() {
+            String text = findField.getText();
+            if (text.isEmpty()) return;
+            byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+            long from = matchOffset >= 0 ? matchOffset + 1 : seek(topRow).offset;
+            int generation = searches.incrementAndGet();
+            status.setText("Searching...");
+
+            indexing.thenRunAsync(() -> {
+                long found = -1;
+                try {
+                    found = search(needle, from, size, generation);
+                    if (found < 0) found = search(needle, 0, from, generation);
+                } catch (InternalError | NullPointerException e) {
+                    // Closed, or the file shrank under the mapping
+                }
+                if (searches.get() != generation) return;
+                long match = found;
+                Position position = match >= 0 ? seekOffset(match) : null;
+                SwingUtilities.invokeLater(() -> {
+                    if (searches.get() != generation) return;
+                    if (position == null) {
+                        status.setText("Not found");
+                        return;
+                    }
+                    status.setText(match < from ? "Wrapped to the start" : " ");
+                    matchOffset = match;
+                    matchColumns = expandTabs(text).length();
+                    selectedRow = position.row;
+                    if (position.row < topRow || position.row >= topRow + page.visibleRows()) {
+                        scrollTo(position.row - page.visibleRows() / 3);
+                    }
+                    page.revealMatch(position);
+                    page.repaint();
+                });
+            }, Workers.io());
+        }
+
+        private long search(byte[] needle, long from, long to, int generation) {
+            byte[] chunk = new byte[1 << 20];
+            long position = from;
+            while (position < to) {
+                if (searches.get() != generation) return -1;
+                int length = (int) Math.min(chunk.length, size - position);
+                read(position, chunk, length);
+                int limit = (int) Math.min(length - needle.length, to - position - 1);
+                outer:
+                for (int i = 0; i <= limit; i++) {
+                    if (chunk[i] != needle[0]) continue;
+                    for (int j = 1; j < needle.length; j++) {
+                        if (chunk[i + j] != needle[j]) continue outer;
+                    }
+                    return position + i;
+                }
+                if (position + length >= size) break;
+                position += Math.max(1, length - needle.length + 1); // Overlap so matches across chunks are found
+            }
+            return -1;
+        }
+
+        // Where the row after the one starting at `start` begins - past its newline, or after
+        // ROW_BYTES without splitting a UTF-8 sequence
+        private long nextRow(long start) {
+            long end = Math.min(size, start + ROW_BYTES);
+            for (long i = start; i < end; i++) {
+                if (byteAt(i) == '\n') return i + 1;
+            }
+            if (end == size) return size;
+            long split = end;
+            while (split > start + 1 && end - split < 3 && (byteAt(split) & 0xC0) == 0x80) split--;
+            return split;
+        }
+
+        private byte byteAt(long position) {
+            return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & ((1 << SEGMENT_BITS) - 1)));
+        }
+
+        private void read(long position, byte[] target, int length) {
+            MappedByteBuffer[] mapped = segments;
+            int done = 0;
+            while (done < length) {
+                long at = position + done;
+                ByteBuffer segment = mapped[(int) (at >>> SEGMENT_BITS)].duplicate();
+                segment.position((int) (at & ((1 << SEGMENT_BITS) - 1)));
+                int count = Math.min(length - done, segment.remaining());
+                segment.get(target, done, count);
+                done += count;
+            }
+        }
+
+        // Row text without its line break, tabs expanded
+        private String text(Position row) {
+            long end = nextRow(row.offset);
+            int length = (int) (end - row.offset);
+            byte[] bytes = new byte[length];
+            read(row.offset, bytes, length);
+            if (length > 0 && bytes[length - 1] == '\n') length--;
+            if (length > 0 && bytes[length - 1] == '\r') length--;
+            return expandTabs(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+
+        private static String expandTabs(String text) {
+            if (text.indexOf('\t') < 0) return text;
+            StringBuilder expanded = new StringBuilder(text.length() + 16);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\t') {
+                    do expanded.append(' '); while (expanded.length() % TAB_SIZE != 0);
+                } else {
+                    expanded.append(c);
+                }
+            }
+            return expanded.toString();
+        }
+
+        // A row start, walked to from the closest index entry
+        private Position seek(long row) {
+            int entry = (int) Math.min(row / INDEX_STEP, indexed - 1);
+            Position position = new Position(entry * (long) INDEX_STEP, offsets[entry], lineNumbers[entry]);
+            while (position.row < row && position.offset < size) position.advance();
+            return position;
+        }
+
+        private Position seekLine(long line) {
+            int low = 0, high = indexed - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (lineNumbers[middle] < line) low = middle;
+                else high = middle - 1;
+            }
+            Position position = new Position(low * (long) INDEX_STEP, offsets[low], lineNumbers[low]);
+            while ((position.line < line || !position.isLineStart()) && position.offset < size) position.advance();
+            return position;
+        }
+
+        private Position seekOffset(long offset) {
+            int low = 0, high = indexed - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (offsets[middle] <= offset) low = middle;
+                else high = middle - 1;
+            }
+            Position position = new Position(low * (long) INDEX_STEP, offsets[low], lineNumbers[low]);
+            while (nextRow(position.offset) <= offset && position.offset < size) position.advance();
+            return position;
+        }
+
+        private static Action keyAction(Runnable runnable) {
+            return new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    runnable.run();
+                }
+            };
+        }
+
+        private class Position {
+            long row;
+            long offset;
+            long line;
+
+            Position(long row, long offset, long line) {
+                this.row = row;
+                this.offset = offset;
+                this.line = line;
+            }
+
+            boolean isLineStart() {
+                return offset == 0 || byteAt(offset - 1) == '\n';
+            }
+
+            void advance() {
+                long next = nextRow(offset);
+                if (byteAt(next - 1) == '\n') line++;
+                offset = next;
+                row++;
+            }
+        }
+
+        // Paints the visible rows with a line-number gutter; clicking selects a row, Ctrl+C copies it
+        private class Page extends JComponent {
+            private int lineHeight;
+            private int ascent;
+            private int charWidth;
+            private int widest; // Longest row painted so far, in columns
+
+            Page() {
+                setFont(new Font("Consolas", Font.PLAIN, 14));
+                setOpaque(true);
+                setFocusable(true);
+                setBackground(new Color(30, 30, 30));
+                setForeground(new Color(200, 200, 200));
+
+                addMouseListener(new MouseAdapter() {
+                    @Override
+                    public void mousePressed(MouseEvent e) {
+                        requestFocusInWindow();
+                        selectedRow = Math.min(rows - 1, topRow + e.getY() / lineHeight);
+                        repaint();
+                    }
+                });
+
+                InputMap keys = getInputMap(WHEN_FOCUSED);
+                keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), "up");
+                keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "down");
+                keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP, 0), "pageUp");
+                keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN, 0), "pageDown");
+                keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_HOME, InputEvent.CTRL_DOWN_MASK), "top");
+                keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_END, InputEvent.CTRL_DOWN_MASK), "bottom");
+                keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK), "copy");
+                getActionMap().put("up", keyAction(() -> scrollTo(topRow - 1)));
+                getActionMap().put("down", keyAction(() -> scrollTo(topRow + 1)));
+                getActionMap().put("pageUp", keyAction(() -> scrollTo(topRow - visibleRows())));
+                getActionMap().put("pageDown", keyAction(() -> scrollTo(topRow + visibleRows())));
+                getActionMap().put("top", keyAction(() -> scrollTo(0)));
+                getActionMap().put("bottom", keyAction(() -> scrollTo(rows - 1)));
+                getActionMap().put("copy", keyAction(() -> {
+                    if (selectedRow < 0 || segments == null) return;
+                    Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new java.awt.datatransfer.StringSelection(text(seek(selectedRow))), null);
+                }));
+            }
+
+            @Override
+            public void setFont(Font font) {
+                // Columns are computed from one character width, so the font has to be monospaced
+                if (!font.getFamily().equals(font.getName()) && !font.getName().equals(Font.MONOSPACED)) {
+                    font = new Font(Font.MONOSPACED, font.getStyle(), font.getSize());
+                }
+                super.setFont(font);
+                FontMetrics metrics = getFontMetrics(font);
+                lineHeight = metrics.getHeight();
+                ascent = metrics.getAscent();
+                charWidth = Math.max(1, metrics.charWidth('m'));
+            }
+
+            int visibleRows() {
+                return Math.max(1, getHeight() / Math.max(1, lineHeight));
+            }
+
+            // Scroll sideways if the match is off screen
+            void revealMatch(Position row) {
+                String prefix = matchPrefix(row);
+                int column = prefix.length();
+                int columns = getWidth() / charWidth - gutterColumns() - 1;
+                if (column < horizontal.getValue() || column >= horizontal.getValue() + columns) {
+                    horizontal.setValue(Math.max(0, column - columns / 2));
+                }
+            }
+
+            private String matchPrefix(Position row) {
+                int length = (int) (matchOffset - row.offset);
+                byte[] bytes = new byte[length];
+                read(row.offset, bytes, length);
+                return expandTabs(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            private int gutterColumns() {
+                return Long.toString(lines).length() + 2;
+            }
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                g.setColor(getBackground());
+                g.fillRect(0, 0, getWidth(), getHeight());
+                if (segments == null || size == 0) return;
+                g.setFont(getFont());
+
+                int gutter = gutterColumns() * charWidth;
+                int firstColumn = horizontal.getValue();
+                int columns = (getWidth() - gutter) / charWidth + 1;
+                int widestBefore = widest;
+                try {
+                    Position row = seek(topRow);
+                    for (int y = 0; y < getHeight() && row.offset < size; y += lineHeight) {
+                        if (row.row == selectedRow) {
+                            g.setColor(new Color(45, 50, 60));
+                            g.fillRect(0, y, getWidth(), lineHeight);
+                        }
+                        if (row.isLineStart()) {
+                            String number = Long.toString(row.line + 1);
+                            g.setColor(new Color(110, 110, 110));
+                            g.drawString(number, gutter - (number.length() + 1) * charWidth, y + ascent);
+                        }
+
+                        String text = text(row);
+                        widest = Math.max(widest, text.length());
+                        long rowEnd = nextRow(row.offset);
+                        if (matchOffset >= row.offset && matchOffset < rowEnd) {
+                            int start = matchPrefix(row).length();
+                            g.setColor(new Color(120, 95, 20));
+                            g.fillRect(gutter + (start - firstColumn) * charWidth, y, matchColumns * charWidth, lineHeight);
+                        }
+                        if (text.length() > firstColumn) {
+                            g.setColor(getForeground());
+                            g.drawString(text.substring(firstColumn, Math.min(text.length(), firstColumn + columns)), gutter, y + ascent);
+                        }
+                        row.advance();
+                    }
+                } catch (InternalError e) {
+                    status.setText("File changed on disk - close and reopen it");
+                }
+                if (widest != widestBefore) SwingUtilities.invokeLater(HugeFileViewer.this::updateScrollBars);
+            }
         }
     }
 
@@ -730,12 +6306,34 @@ public class NodeJSRunner extends JFrame {
         File file;
         JTextArea editor;
         JScrollPane scrollPane;
+        HugeFileViewer viewer;
+        FileLoader loader;
+        EditJournal journal;
+        long lastSelected;
+        boolean hibernated;
+        int caret = -1;
+        Point scroll;
         
         EditorTab(File file, JTextArea editor, JScrollPane scrollPane) {
             this.file = file;
             this.editor = editor;
             this.scrollPane = scrollPane;
         }
+        
+        EditorTab(File file, FileLoader loader) {
+            this.file = file;
+            this.loader = loader;
+        }
+        
+        JComponent component() {
+            if (loader != null) return loader;
+            return viewer != null ? viewer : scrollPane;
+        }
+        
+        long footprint() {
+            javax.swing.text.Document document = editor.getDocument();
+            return document.getLength() * 2L + document.getDefaultRootElement().getElementCount() * 120L;
+        }
     }
 
     public static void main(String[] args) {
@@ -748,30 +6346,22 @@ public class NodeJSRunner extends JFrame {
             e.printStackTrace();
         }
         
-        // Check Node.js in background
         SwingUtilities.invokeLater(() -> {
-            System.out.println("Checking Node.js installation...");
-            try {
-                ProcessBuilder pb = new ProcessBuilder();
-                String os = System.getProperty("os.name").toLowerCase();
-                if (os.contains("win")) {
-                    pb.command("cmd.exe", "/c", "node --version");
-                } else {
-                    pb.command("sh", "-c", "node --version");
-                }
-                Process p = pb.start();
-                p.waitFor();
-                System.out.println("Node.js found!");
-            } catch (Exception e) {
-                System.out.println("Node.js check failed: " + e.getMessage());
-                JOptionPane.showMessageDialog(null, 
-                    "Warning: Node.js might not be installed!\n\nInstall from: https://nodejs.org\n\nIDE will still open.",
-                    "Node.js Check", JOptionPane.WARNING_MESSAGE);
-            }
-            
             System.out.println("Creating IDE window...");
             new NodeJSRunner();
             System.out.println("IDE window created!");
         });
+        
+        // Check Node.js in background - no shell, and the version stays cached for later
+        System.out.println("Checking Node.js installation...");
+        String version = Launcher.version("node");
+        if (version != null) {
+            System.out.println("Node.js found: " + version);
+        } else {
+            System.out.println("Node.js check failed: node is not on PATH");
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, 
+                "Warning: Node.js might not be installed!\n\nInstall from: https://nodejs.org\n\nIDE will still open.",
+                "Node.js Check", JOptionPane.WARNING_MESSAGE));
+        }
     }
 }
\ No newline at end of file